@@ -0,0 +1,110 @@
+package adsen.scarpet.interpreter.parser;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of compiled expressions, keyed by their normalised code, so the same snippet doesn't have to be
+ * tokenized and turned into an AST again every time a new {@link Expression} is made out of it.
+ * <p>
+ * The least recently used entries get evicted once either the number of entries or the total length of the cached
+ * code (its weight) goes over the limit. All methods are synchronized, so one cache can be shared by all threads.
+ */
+public class CompiledExpressionCache {
+    private final LinkedHashMap<String, LazyValue> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private int maxEntries;
+    private long maxWeight;
+    private long weight = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * @param maxEntries Maximum number of compiled expressions to keep, 0 disables the cache
+     * @param maxWeight  Maximum total length of code of all the cached expressions
+     */
+    public CompiledExpressionCache(int maxEntries, long maxWeight) {
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+    }
+
+    synchronized LazyValue get(String code) {
+        LazyValue ast = entries.get(code);
+        if (ast == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return ast;
+    }
+
+    synchronized void put(String code, LazyValue ast) {
+        if (maxEntries <= 0 || code.length() > maxWeight)
+            return;
+        LazyValue previous = entries.put(code, ast);
+        if (previous == null) {
+            weight += code.length();
+        }
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, LazyValue>> iterator = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || weight > maxWeight) && iterator.hasNext()) {
+            weight -= iterator.next().getKey().length();
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Changes the limits of the cache, evicting entries straight away if it is now over them
+     */
+    public synchronized void resize(int maxEntries, long maxWeight) {
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        evict();
+    }
+
+    /**
+     * Empties the cache and starts counting hits, misses and evictions from 0 again
+     */
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    /**
+     * Number of times a compiled expression was found in the cache since it was made or last cleared
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Number of times an expression had to be compiled because it wasn't in the cache, since it was made or last
+     * cleared
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Number of entries dropped to stay within the limits since the cache was made or last cleared
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+}
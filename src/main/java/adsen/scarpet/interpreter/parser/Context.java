@@ -1,6 +1,7 @@
 package adsen.scarpet.interpreter.parser;
 
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -15,6 +16,18 @@ public class Context {
     public static final int SIGNATURE = 7;
     public static final int LOCALIZATION = 8;
     public ScriptHost host;
+    /**
+     * The user defined function this is the frame of, if it is one
+     */
+    UserDefinedFunction function = null;
+    /**
+     * Local variables with a slot in the layout of the code running in this context, see {@link FrameLayout}
+     */
+    FrameLayout layout = null;
+    LazyValue[] slots = null;
+    /**
+     * Local variables without a slot, i.e. those only ever accessed by name
+     */
     private Map<String, LazyValue> variables = new HashMap<>();
 
     Context(ScriptHost host) {
@@ -25,9 +38,56 @@ public class Context {
         return new Context(new ScriptHost("command line"));
     }
 
+    /**
+     * Makes this context keep its local variables in the slots of the given layout, unless it already has a layout.
+     * Variables which were set by name before get moved into their slots.
+     */
+    void enter(FrameLayout frameLayout) {
+        if (layout != null)
+            return;
+        layout = frameLayout;
+        slots = new LazyValue[frameLayout.size()];
+        if (!variables.isEmpty()) {
+            variables.entrySet().removeIf(e -> {
+                int slot = frameLayout.slotOf(e.getKey());
+                if (slot < 0) return false;
+                slots[slot] = e.getValue();
+                return true;
+            });
+        }
+    }
+
+    private int slotOf(String name) {
+        return layout == null ? -1 : layout.slotOf(name);
+    }
+
+    private LazyValue getLocal(String name) {
+        int slot = slotOf(name);
+        return slot >= 0 ? slots[slot] : variables.get(name);
+    }
+
+    private void setLocal(String name, LazyValue lv) {
+        int slot = slotOf(name);
+        if (slot >= 0) {
+            slots[slot] = lv;
+        } else {
+            variables.put(name, lv);
+        }
+    }
+
+    private void removeLocal(String name) {
+        int slot = slotOf(name);
+        if (slot >= 0) {
+            slots[slot] = null;
+        } else {
+            variables.remove(name);
+        }
+    }
+
     public LazyValue getVariable(String name) {
-        if (variables.containsKey(name)) {
-            return variables.get(name);
+        LazyValue local = getLocal(name);
+        if (local != null) {
+            return local;
         }
         return host.globalVariables.get(name);
     }
@@ -37,12 +97,12 @@ public class Context {
             host.globalVariables.put(name, lv);
             return;
         }
-        variables.put(name, lv);
+        setLocal(name, lv);
     }
 
 
     public boolean isAVariable(String name) {
-        return variables.containsKey(name) || host.globalVariables.containsKey(name);
+        return getLocal(name) != null || host.globalVariables.containsKey(name);
     }
 
 
@@ -51,7 +111,7 @@ public class Context {
             host.globalVariables.remove(variable);
             return;
         }
-        variables.remove(variable);
+        removeLocal(variable);
     }
 
     public void clearAll(String variable) {
@@ -59,16 +119,23 @@ public class Context {
             host.globalVariables.remove(variable);
             return;
         }
-        variables.remove(variable);
+        removeLocal(variable);
     }
 
     public Context with(String variable, LazyValue lv) {
-        variables.put(variable, lv);
+        setLocal(variable, lv);
         return this;
     }
 
     public Set<String> getAllVariableNames() {
-        return variables.keySet();
+        Set<String> names = new LinkedHashSet<>();
+        if (layout != null) {
+            for (int slot = 0; slot < slots.length; slot++) {
+                if (slots[slot] != null) names.add(layout.nameOf(slot));
+            }
+        }
+        names.addAll(variables.keySet());
+        return names;
     }
 
     public Context recreate() {
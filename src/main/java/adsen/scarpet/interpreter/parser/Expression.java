@@ -29,11 +29,17 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -43,14 +49,44 @@ import static java.lang.Math.max;
 import static java.lang.Math.min;
 
 public class Expression implements Cloneable {
+    /**
+     * Built-in operators and functions, shared by all expressions. They are registered once from the language classes
+     * and never modified afterwards, so creating an {@link Expression} doesn't have to register them all over again.
+     */
+    private static final Map<String, ILazyOperator> builtInOperators;
+    private static final Map<String, ILazyFunction> builtInFunctions;
+
+    static {
+        Expression registry = new Expression();
+        FunctionsAndControlFlow.apply(registry);
+        Operators.apply(registry);
+        Arithmetic.apply(registry);
+        SystemFunctions.apply(registry);
+        LoopsAndHigherOrderFunctions.apply(registry);
+        builtInOperators = Map.copyOf(registry.operators);
+        builtInFunctions = Map.copyOf(registry.functions);
+    }
+
     static Expression none = new Expression("null");
+    /**
+     * ASTs of already compiled code, shared between all expressions which only use built-in functions
+     */
+    private static final CompiledExpressionCache compiledCache = new CompiledExpressionCache(1024, 1 << 20);
     /**
      * The function used to print, must accept a string, and can be use to display results however you want.
      * By default set to {@link System#out#println(String)}, so it prints to command line, but can be set to whatever you want.
      */
     private static Consumer<String> printFunction = System.out::println;
     /**
-     * script specific operators and built-in functions
+     * Size of the stack to evaluate expressions with, in bytes, or 0 to evaluate them on the calling thread
+     */
+    private static volatile long stackMemory = 0;
+    /**
+     * Runs the evaluations when {@link Expression#stackMemory} is set, on threads with a stack of that size
+     */
+    private static volatile ExecutorService evaluator = null;
+    /**
+     * script specific operators and functions, on top of the built-in ones
      */
     private final Map<String, ILazyOperator> operators = new HashMap<>();
     private final Map<String, ILazyFunction> functions = new HashMap<>();
@@ -71,12 +107,12 @@ public class Expression implements Cloneable {
         this.expression = expression.trim().
                 replaceAll("\\r\\n?", "\n").
                 replaceAll(";+$", "");
+    }
 
-        FunctionsAndControlFlow.apply(this);
-        Operators.apply(this);
-        Arithmetic.apply(this);
-        SystemFunctions.apply(this);
-        LoopsAndHigherOrderFunctions.apply(this);
+    /**
+     * Used only to fill in the built-in operators and functions
+     */
+    private Expression() {
     }
 
     static List<String> getExpressionSnippet(Tokenizer.Token token, Expression expr) {
@@ -142,7 +178,67 @@ public class Expression implements Cloneable {
         printFunction = printerFunction;
     }
 
+    /**
+     * The cache of compiled expressions, to check how well it's doing or to change its size.
+     */
+    public static CompiledExpressionCache getCompiledCache() {
+        return compiledCache;
+    }
+
+    /**
+     * Sets how much memory evaluating an expression can use for its stack, which is what limits how deep functions
+     * can recurse (calls of a function to itself as the last thing it does don't count). When set, expressions are
+     * evaluated on a pool of threads with stacks of that size, while the calling thread waits for them.
+     *
+     * @param bytes Size of the stack, or 0 to evaluate on the calling thread, with its stack
+     */
+    public static synchronized void setStackMemory(long bytes) {
+        if (bytes == stackMemory)
+            return;
+        ExecutorService old = evaluator;
+        evaluator = bytes > 0 ? Executors.newCachedThreadPool(task -> new EvaluationThread(task, bytes)) : null;
+        stackMemory = bytes;
+        if (old != null)
+            old.shutdown(); // evaluations already running on it still finish
+    }
+
+    public static long getStackMemory() {
+        return stackMemory;
+    }
+
+    /**
+     * Thread expressions are evaluated on when {@link Expression#stackMemory} is set. Threads are kept for a while
+     * after an evaluation, so that the next ones don't need to start a thread of their own.
+     */
+    private static class EvaluationThread extends Thread {
+        EvaluationThread(Runnable task, long stackSize) {
+            super(null, task, "Scarpet evaluation", stackSize);
+            setDaemon(true);
+        }
+    }
+
     static Value evalValue(Supplier<LazyValue> exprProvider, Context c, Integer expectedType) {
+        ExecutorService executor = evaluator;
+        if (executor != null && !(Thread.currentThread() instanceof EvaluationThread)) {
+            Future<Value> result;
+            try {
+                result = executor.submit(() -> evalValue(exprProvider, c, expectedType));
+            } catch (RejectedExecutionException e) { // the stack size changed in the meantime, so go with the new one
+                return evalValue(exprProvider, c, expectedType);
+            }
+            try {
+                return result.get();
+            } catch (InterruptedException e) {
+                result.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new ExpressionException("Evaluation was interrupted");
+            } catch (ExecutionException e) {
+                Throwable failure = e.getCause();
+                if (failure instanceof RuntimeException exc) throw exc;
+                if (failure instanceof Error error) throw error;
+                throw new ExpressionException("Evaluation failed: " + failure, failure);
+            }
+        }
         try {
             return exprProvider.get().evalValue(c, expectedType);
         } catch (ExitStatement exit) {
@@ -164,12 +260,39 @@ public class Expression implements Cloneable {
         return name;
     }
 
+    /**
+     * Set of names of all the functions which come with scarpet itself
+     */
+    static Set<String> getBuiltInFunctionNames() {
+        return builtInFunctions.keySet();
+    }
+
+    static ILazyOperator getBuiltInOperator(String surface) {
+        return builtInOperators.get(surface);
+    }
+
+    static ILazyFunction getBuiltInFunction(String name) {
+        return builtInFunctions.get(name);
+    }
+
+    ILazyOperator getOperator(String surface) {
+        ILazyOperator operator = operators.get(surface);
+        return operator != null ? operator : builtInOperators.get(surface);
+    }
+
+    ILazyFunction getFunction(String name) {
+        ILazyFunction function = functions.get(name);
+        return function != null ? function : builtInFunctions.get(name);
+    }
+
     boolean isAnOperator(String opname) {
-        return operators.containsKey(opname) || operators.containsKey(opname + "u");
+        return getOperator(opname) != null || getOperator(opname + "u") != null;
     }
 
     Set<String> getFunctionNames() {
-        return functions.keySet();
+        Set<String> names = new HashSet<>(builtInFunctions.keySet());
+        names.addAll(functions.keySet());
+        return names;
     }
 
     @Override
@@ -237,35 +360,82 @@ public class Expression implements Cloneable {
     }
 
     public void addUnaryOperator(String surface, boolean leftAssoc, Function<Value, Value> fun) {
+        addUnaryOperator(surface, leftAssoc, false, fun);
+    }
+
+    /**
+     * Like {@link Expression#addUnaryOperator}, but for operators without side effects, so they can be worked out while
+     * compiling when their operand is a constant
+     */
+    public void addPureUnaryOperator(String surface, boolean leftAssoc, Function<Value, Value> fun) {
+        addUnaryOperator(surface, leftAssoc, true, fun);
+    }
+
+    private void addUnaryOperator(String surface, boolean leftAssoc, boolean pure, Function<Value, Value> fun) {
         operators.put(surface + "u", new AbstractUnaryOperator(Operators.precedence.get("unary+-!"), leftAssoc) {
             @Override
             public Value evalUnary(Value v1) {
                 return fun.apply(Value.assertNotNull(v1));
             }
+
+            @Override
+            public boolean isPure() {
+                return pure;
+            }
         });
     }
 
     public void addBinaryOperator(String surface, int precedence, boolean leftAssoc, BiFunction<Value, Value, Value> fun) {
+        addBinaryOperator(surface, precedence, leftAssoc, false, fun);
+    }
+
+    /**
+     * Like {@link Expression#addBinaryOperator}, but for operators without side effects, so they can be worked out while
+     * compiling when both operands are constants
+     */
+    public void addPureBinaryOperator(String surface, int precedence, boolean leftAssoc, BiFunction<Value, Value, Value> fun) {
+        addBinaryOperator(surface, precedence, leftAssoc, true, fun);
+    }
+
+    private void addBinaryOperator(String surface, int precedence, boolean leftAssoc, boolean pure, BiFunction<Value, Value, Value> fun) {
         operators.put(surface, new AbstractOperator(precedence, leftAssoc) {
             @Override
             public Value eval(Value v1, Value v2) {
                 Value.assertNotNull(v1, v2);
                 return fun.apply(v1, v2);
             }
+
+            @Override
+            public boolean isPure() {
+                return pure;
+            }
         });
     }
 
     public void addUnaryFunction(String name, Function<Value, Value> fun) {
+        addUnaryFunction(name, false, fun);
+    }
+
+    private void addUnaryFunction(String name, boolean pure, Function<Value, Value> fun) {
         name = name.toLowerCase(Locale.ROOT);
         functions.put(name, new AbstractFunction(1) {
             @Override
             public Value eval(List<Value> parameters) {
                 return fun.apply(Value.assertNotNull(parameters.get(0)));
             }
+
+            @Override
+            public boolean isPure() {
+                return pure;
+            }
         });
     }
 
     public void addBinaryFunction(String name, BiFunction<Value, Value, Value> fun) {
+        addBinaryFunction(name, false, fun);
+    }
+
+    private void addBinaryFunction(String name, boolean pure, BiFunction<Value, Value, Value> fun) {
         name = name.toLowerCase(Locale.ROOT);
         functions.put(name, new AbstractFunction(2) {
             @Override
@@ -275,6 +445,11 @@ public class Expression implements Cloneable {
                 Value.assertNotNull(v1, v2);
                 return fun.apply(v1, v2);
             }
+
+            @Override
+            public boolean isPure() {
+                return pure;
+            }
         });
     }
 
@@ -291,12 +466,36 @@ public class Expression implements Cloneable {
     }
 
     public void addMathematicalUnaryFunction(String name, Function<Double, Double> fun) {
-        addUnaryFunction(name, (v) -> new NumericValue(fun.apply(NumericValue.asNumber(v).getDouble())));
+        addMathematicalUnaryFunction(name, false, fun);
+    }
+
+    /**
+     * Like {@link Expression#addMathematicalUnaryFunction}, but for functions without side effects, so they can be
+     * worked out while compiling when their argument is a constant
+     */
+    public void addPureMathematicalUnaryFunction(String name, Function<Double, Double> fun) {
+        addMathematicalUnaryFunction(name, true, fun);
+    }
+
+    private void addMathematicalUnaryFunction(String name, boolean pure, Function<Double, Double> fun) {
+        addUnaryFunction(name, pure, (v) -> NumericValue.of(fun.apply(NumericValue.asNumber(v).getDouble())));
     }
 
     public void addMathematicalBinaryFunction(String name, BiFunction<Double, Double, Double> fun) {
-        addBinaryFunction(name, (w, v) ->
-                new NumericValue(fun.apply(NumericValue.asNumber(w).getDouble(), NumericValue.asNumber(v).getDouble())));
+        addMathematicalBinaryFunction(name, false, fun);
+    }
+
+    /**
+     * Like {@link Expression#addMathematicalBinaryFunction}, but for functions without side effects, so they can be
+     * worked out while compiling when both arguments are constants
+     */
+    public void addPureMathematicalBinaryFunction(String name, BiFunction<Double, Double, Double> fun) {
+        addMathematicalBinaryFunction(name, true, fun);
+    }
+
+    private void addMathematicalBinaryFunction(String name, boolean pure, BiFunction<Double, Double, Double> fun) {
+        addBinaryFunction(name, pure, (w, v) ->
+                NumericValue.of(fun.apply(NumericValue.asNumber(w).getDouble(), NumericValue.asNumber(v).getDouble())));
     }
 
     public void addLazyFunction(String name, int num_params, TriFunction<Context, Integer, List<LazyValue>, LazyValue> fun) {
@@ -317,7 +516,7 @@ public class Expression implements Cloneable {
 
     public void addContextFunction(Context context, String name, Expression expr, Tokenizer.Token token, List<String> arguments, List<String> globals, LazyValue code) {
         name = name.toLowerCase(Locale.ROOT);
-        if (functions.containsKey(name))
+        if (getFunction(name) != null)
             throw new ExpressionException(expr, token, "Function " + name + " would mask a built-in function");
         Expression function_context;
         try {
@@ -327,9 +526,16 @@ public class Expression implements Cloneable {
             throw new ExpressionException(expr, token, "Problems in allocating global function " + name);
         }
 
-        context.host.globalFunctions.put(name, new UserDefinedFunction(arguments, function_context, token) {
+        FrameLayout layout = code instanceof Nodes.ScopeNode scope ? scope.layout
+                : code instanceof VirtualMachine.Chunk chunk ? chunk.layout : null;
+        context.host.defineFunction(name, new UserDefinedFunction(arguments, function_context, token) {
+            /**
+             * The body of the function, which gets replaced with a compiled version once there is one
+             */
+            private LazyValue body = code;
+
             @Override
-            public LazyValue lazyEval(Context c, Integer type, Expression e, Tokenizer.Token t, List<LazyValue> lazyParams) {
+            public Value call(Context c, Integer type, Expression e, Tokenizer.Token t, List<LazyValue> lazyParams) {
                 if (arguments.size() != lazyParams.size()) // something that might be subject to change in the future
                 {
                     throw new ExpressionException(e, t,
@@ -337,7 +543,7 @@ public class Expression implements Cloneable {
                                     ". Should be " + arguments.size() + ", not " + lazyParams.size() + " like " + arguments
                     );
                 }
-                Context newFrame = c.recreate();
+                Context newFrame = newFrame(c);
 
                 for (String global : globals) {
                     LazyValue lv = c.getVariable(global);
@@ -355,17 +561,29 @@ public class Expression implements Cloneable {
                 }
                 Value retVal;
                 boolean rethrow = false;
-                try {
-                    retVal = code.evalValue(newFrame, type); // todo not sure if we need to propagate type / consider boolean context in defined functions - answer seems ye
-                } catch (ReturnStatement returnStatement) {
-                    retVal = returnStatement.retval;
-                } catch (ThrowStatement throwStatement) {
-                    retVal = throwStatement.retval;
-                    rethrow = true;
-                } catch (InternalExpressionException exc) {
-                    throw new ExpressionException(function_context, t, exc.getMessage());
-                } catch (ArithmeticException exc) {
-                    throw new ExpressionException(function_context, t, "Your math is wrong, " + exc.getMessage());
+                while (true) {
+                    try {
+                        retVal = body.evalValue(newFrame, type); // todo not sure if we need to propagate type / consider boolean context in defined functions - answer seems ye
+                    } catch (ReturnStatement returnStatement) {
+                        retVal = returnStatement.retval;
+                    } catch (ThrowStatement throwStatement) {
+                        retVal = throwStatement.retval;
+                        rethrow = true;
+                    } catch (InternalExpressionException exc) {
+                        throw new ExpressionException(function_context, t, exc.getMessage());
+                    } catch (ArithmeticException exc) {
+                        throw new ExpressionException(function_context, t, "Your math is wrong, " + exc.getMessage());
+                    }
+                    if (!(retVal instanceof Nodes.TailCall tailCall))
+                        break;
+                    // the function called itself as the last thing it does, so run it again instead, in a fresh frame
+                    newFrame = newFrame(newFrame);
+                    for (int i = 0; i < arguments.size(); i++) {
+                        String arg = arguments.get(i);
+                        Value val = tailCall.args.get(i).reboundedTo(arg);
+                        newFrame.setVariable(arg, (cc, tt) -> val);
+                    }
+                    type = tailCall.type;
                 }
                 for (String global : globals) {
                     LazyValue lv = newFrame.getVariable(global);
@@ -376,8 +594,19 @@ public class Expression implements Cloneable {
                 if (rethrow) {
                     throw new ThrowStatement(retVal);
                 }
-                Value otherRetVal = retVal;
-                return (cc, tt) -> otherRetVal;
+                return retVal;
+            }
+
+            private Context newFrame(Context c) {
+                if (body instanceof Nodes.ScopeNode scope) {
+                    body = FunctionCompiler.body(scope);
+                }
+                Context newFrame = c.recreate();
+                newFrame.function = this;
+                if (layout != null) {
+                    newFrame.enter(layout);
+                }
+                return newFrame;
             }
         });
     }
@@ -432,7 +661,7 @@ public class Expression implements Cloneable {
                             && (previousToken.type == Tokenizer.Token.TokenType.COMMA || previousToken.type == Tokenizer.Token.TokenType.OPEN_PAREN)) {
                         throw new ExpressionException(this, token, "Missing parameter(s) for operator '" + token + "'");
                     }
-                    ILazyOperator o1 = operators.get(token.surface);
+                    ILazyOperator o1 = getOperator(token.surface);
                     if (o1 == null) {
                         throw new ExpressionException(this, token, "Unknown operator '" + token + "'");
                     }
@@ -445,7 +674,7 @@ public class Expression implements Cloneable {
                             && previousToken.type != Tokenizer.Token.TokenType.COMMA && previousToken.type != Tokenizer.Token.TokenType.OPEN_PAREN) {
                         throw new ExpressionException(this, token, "Invalid position for unary operator " + token);
                     }
-                    ILazyOperator o1 = operators.get(token.surface);
+                    ILazyOperator o1 = getOperator(token.surface);
                     if (o1 == null) {
                         throw new ExpressionException(this, token, "Unknown unary operator '" + token.surface.substring(0, token.surface.length() - 1) + "'");
                     }
@@ -513,8 +742,8 @@ public class Expression implements Cloneable {
         while (nextToken != null
                 && (nextToken.type == Tokenizer.Token.TokenType.OPERATOR
                 || nextToken.type == Tokenizer.Token.TokenType.UNARY_OPERATOR)
-                && ((o1.isLeftAssoc() && o1.getPrecedence() <= operators.get(nextToken.surface).getPrecedence())
-                || (o1.getPrecedence() < operators.get(nextToken.surface).getPrecedence()))) {
+                && ((o1.isLeftAssoc() && o1.getPrecedence() <= getOperator(nextToken.surface).getPrecedence())
+                || (o1.getPrecedence() < getOperator(nextToken.surface).getPrecedence()))) {
             outputQueue.add(stack.pop());
             nextToken = stack.isEmpty() ? null : stack.peek();
         }
@@ -536,9 +765,27 @@ public class Expression implements Cloneable {
 
     private Value eval(Context c, Integer expectedType) {
         if (ast == null) {
-            ast = getAST();
+            ast = compile();
         }
-        return evalValue(() -> ast, c, expectedType);
+        LazyValue code = c.host.getEngine() == ScriptHost.Engine.VM ? VirtualMachine.chunkOf(ast) : ast;
+        return evalValue(() -> code, c, expectedType);
+    }
+
+    private LazyValue compile() {
+        // functions and operators added to this expression change how it compiles, so it can't share its AST
+        if (!operators.isEmpty() || !functions.isEmpty()) {
+            return getAST();
+        }
+        String code = expression; // shuntingYard() replaces '$' markers in the expression
+        LazyValue cached = compiledCache.get(code);
+        if (cached != null) {
+            return cached;
+        }
+        // nodes keep the expression they were made by for their error messages, so the cached ones get one of their
+        // own, with the same code, instead of keeping this one for as long as they are cached
+        LazyValue compiled = new Expression(code).getAST();
+        compiledCache.put(code, compiled);
+        return compiled;
     }
 
     private LazyValue getAST() {
@@ -549,35 +796,28 @@ public class Expression implements Cloneable {
             switch (token.type) {
                 case UNARY_OPERATOR -> {
                     final LazyValue value = stack.pop();
-                    LazyValue result = (c, t) -> operators.get(token.surface).lazyEval(c, t, this, token, value, null).evalValue(c);
-                    stack.push(result);
+                    stack.push(Nodes.fold(new Nodes.OperatorNode(getOperator(token.surface), this, token, value, null)));
                 }
                 case OPERATOR -> {
                     final LazyValue v1 = stack.pop();
                     final LazyValue v2 = stack.pop();
-                    LazyValue result = (c, t) -> operators.get(token.surface).lazyEval(c, t, this, token, v2, v1).evalValue(c);
-                    stack.push(result);
+                    stack.push(Nodes.fold(Nodes.operator(getOperator(token.surface), this, token, v2, v1)));
                 }
-                case VARIABLE -> stack.push((c, t) ->
-                {
-                    if (!c.isAVariable(token.surface)) // new variable
-                    {
-                        c.setVariable(token.surface, (cc, tt) -> Value.ZERO.reboundedTo(token.surface));
-                    }
-                    LazyValue lazyVariable = c.getVariable(token.surface);
-                    return lazyVariable.evalValue(c);
-                });
+                case VARIABLE -> stack.push(ScriptHost.constants.containsKey(token.surface)
+                        ? new Nodes.ConstantNode(ScriptHost.constants.get(token.surface))
+                        : new Nodes.VariableNode(token.surface));
                 case FUNCTION -> {
                     String name = token.surface.toLowerCase(Locale.ROOT);
                     ILazyFunction f;
                     ArrayList<LazyValue> p;
-                    boolean isKnown = functions.containsKey(name); // globals will be evaluated lazily, not at compile time via .
+                    ILazyFunction known = getFunction(name);
+                    boolean isKnown = known != null; // globals will be evaluated lazily, not at compile time via .
                     if (isKnown) {
-                        f = functions.get(name);
+                        f = known;
                         p = new ArrayList<>(!f.numParamsVaries() ? f.getNumParams() : 0);
                     } else // potentially unknown function or just unknown function
                     {
-                        f = functions.get(".");
+                        f = getFunction(".");
                         p = new ArrayList<>();
                     }
                     // pop parameters off the stack until we hit the start of
@@ -585,27 +825,40 @@ public class Expression implements Cloneable {
                     while (!stack.isEmpty() && stack.peek() != LazyValue.PARAMS_START) {
                         p.add(0, stack.pop());
                     }
-                    if (!isKnown) p.add((c, t) -> new StringValue(name));
+                    if (!isKnown) p.add(new Nodes.ConstantNode(new StringValue(name)));
                     if (stack.peek() == LazyValue.PARAMS_START) {
                         stack.pop();
                     }
-                    stack.push((c, t) -> f.lazyEval(c, t, this, token, p).evalValue(c));
+                    stack.push(isKnown
+                            ? Nodes.fold(new Nodes.FunctionNode(f, this, token, p))
+                            : new Nodes.CallNode(f, this, token, p, name));
                 }
                 case OPEN_PAREN -> stack.push(LazyValue.PARAMS_START);
-                case LITERAL -> stack.push((c, t) ->
-                {
-                    try {
-                        return new NumericValue(token.surface);
-                    } catch (NumberFormatException exception) {
-                        throw new ExpressionException(this, token, "Not a number");
-                    }
-                });
-                case STRING -> stack.push((c, t) -> new StringValue(token.surface)); // was originally null
-                case HEX_LITERAL -> stack.push((c, t) -> new NumericValue(new BigInteger(token.surface.substring(2), 16).doubleValue()));
+                case LITERAL, HEX_LITERAL -> stack.push(numericLiteral(token));
+                case STRING -> stack.push(new Nodes.ConstantNode(new StringValue(token.surface))); // was originally null
                 default -> throw new ExpressionException(this, token, "Unexpected token '" + token.surface + "'");
             }
         }
-        return stack.pop();
+        FrameLayout layout = new FrameLayout();
+        LazyValue root = stack.pop();
+        Nodes.resolve(root, layout);
+        return new Nodes.ScopeNode(layout, root);
+    }
+
+    /**
+     * Parses a number once, when compiling. If it's not a number, the error only comes up when the literal is evaluated.
+     */
+    private LazyValue numericLiteral(Tokenizer.Token token) {
+        try {
+            if (token.type == Tokenizer.Token.TokenType.HEX_LITERAL) {
+                return new Nodes.ConstantNode(new NumericValue(new BigInteger(token.surface.substring(2), 16).doubleValue()));
+            }
+            return new Nodes.ConstantNode(new NumericValue(token.surface));
+        } catch (NumberFormatException exception) {
+            return (c, t) -> {
+                throw new ExpressionException(this, token, "Not a number");
+            };
+        }
     }
 
     private void validate(List<Tokenizer.Token> rpn) {
@@ -640,7 +893,7 @@ public class Expression implements Cloneable {
                     stack.set(stack.size() - 1, stack.peek() - 2 + 1);
                     break;
                 case FUNCTION:
-                    ILazyFunction f = functions.get(token.surface.toLowerCase(Locale.ROOT));// don't validate global - userdef functions
+                    ILazyFunction f = getFunction(token.surface.toLowerCase(Locale.ROOT));// don't validate global - userdef functions
                     int numParams = stack.pop();
                     if (f != null && !f.numParamsVaries() && numParams != f.getNumParams()) {
                         throw new ExpressionException(this, token, "Function " + token + " expected " + f.getNumParams() + " parameters, got " + numParams);
@@ -15,7 +15,7 @@ public class ExpressionInspector {
 
     static {
         Set<String> allFunctions = (new APIExpression("null")).getExpr().getFunctionNames();
-        scarpetNativeFunctions = new HashSet<>(new Expression("null").getFunctionNames());
+        scarpetNativeFunctions = new HashSet<>(Expression.getBuiltInFunctionNames());
         allFunctions.removeIf(s -> !scarpetNativeFunctions.contains(s));
         APIFunctions = new HashSet<>(allFunctions);
     }
@@ -33,8 +33,23 @@ public abstract class Fluff {
 
         boolean numParamsVaries();
 
+        /**
+         * Whether the function has no side effects and its result only depends on its arguments, so a call with constant
+         * arguments can be worked out while compiling
+         */
+        default boolean isPure() {
+            return false;
+        }
+
         LazyValue lazyEval(Context c, Integer type, Expression expr, Tokenizer.Token token, List<LazyValue> lazyParams);
         // lazy function has a chance to change execution based on context
+
+        /**
+         * Evaluates the function straight to its value, which saves eager functions from wrapping it in a {@link LazyValue}
+         */
+        default Value evalValue(Context c, Integer type, Expression expr, Tokenizer.Token token, List<LazyValue> lazyParams) {
+            return lazyEval(c, type, expr, token, lazyParams).evalValue(c);
+        }
     }
 
     public interface IFunction extends ILazyFunction {
@@ -46,7 +61,22 @@ public abstract class Fluff {
 
         boolean isLeftAssoc();
 
+        /**
+         * Whether the operator has no side effects and its result only depends on its operands, so it can be worked out
+         * while compiling when they are constants
+         */
+        default boolean isPure() {
+            return false;
+        }
+
         LazyValue lazyEval(Context c, Integer type, Expression e, Tokenizer.Token t, LazyValue v1, LazyValue v2);
+
+        /**
+         * Evaluates the operator straight to its value, which saves eager operators from wrapping it in a {@link LazyValue}
+         */
+        default Value evalValue(Context c, Integer type, Expression e, Tokenizer.Token t, LazyValue v1, LazyValue v2) {
+            return lazyEval(c, type, e, t, v1, v2).evalValue(c);
+        }
     }
 
     public interface IOperator extends ILazyOperator {
@@ -104,6 +134,15 @@ public abstract class Fluff {
                 throw new ExpressionException(e, t, exc.getMessage());
             }
         }
+
+        @Override
+        public Value evalValue(Context c, Integer type, Expression e, Tokenizer.Token t, List<LazyValue> lazyParams) {
+            List<Value> params = new ArrayList<>(lazyParams.size());
+            for (LazyValue lazyParam : lazyParams) {
+                params.add(lazyParam.evalValue(c)); // none type default by design
+            }
+            return eval(params);
+        }
     }
 
     public abstract static class AbstractLazyOperator implements ILazyOperator {
@@ -142,6 +181,11 @@ public abstract class Fluff {
                 throw new ExpressionException(e, t, "Your math is wrong, " + exc.getMessage());
             }
         }
+
+        @Override
+        public Value evalValue(Context c, Integer type, Expression e, Tokenizer.Token t, LazyValue v1, LazyValue v2) {
+            return eval(v1.evalValue(c), v2.evalValue(c));
+        }
     }
 
     public abstract static class AbstractUnaryOperator extends AbstractOperator {
@@ -164,6 +208,14 @@ public abstract class Fluff {
             }
         }
 
+        @Override
+        public Value evalValue(Context c, Integer type, Expression e, Tokenizer.Token t, LazyValue v1, LazyValue v2) {
+            if (v2 != null) {
+                throw new ExpressionException(e, t, "Did not expect a second parameter for unary operator");
+            }
+            return evalUnary(v1.evalValue(c));
+        }
+
         @Override
         public Value eval(Value v1, Value v2) {
             throw new ExpressionException("Shouldn't end up here");
@@ -0,0 +1,44 @@
+package adsen.scarpet.interpreter.parser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Which slot of a {@link Context} each local variable of a function body (or of the whole expression) goes in.
+ * It's worked out once when compiling, so variables in the code can be read and written by index instead of by name.
+ * Variables which are only ever accessed by name, like with {@code var()}, don't get a slot.
+ */
+final class FrameLayout {
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    /**
+     * Gives the variable a slot, if it doesn't have one already
+     *
+     * @return The slot of the variable
+     */
+    int add(String name) {
+        return slots.computeIfAbsent(name, n -> {
+            names.add(n);
+            return names.size() - 1;
+        });
+    }
+
+    /**
+     * @return The slot of the variable, or -1 if it doesn't have one
+     */
+    int slotOf(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    String nameOf(int slot) {
+        return names.get(slot);
+    }
+
+    int size() {
+        return names.size();
+    }
+}
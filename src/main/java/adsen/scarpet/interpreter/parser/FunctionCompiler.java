@@ -0,0 +1,611 @@
+package adsen.scarpet.interpreter.parser;
+
+import adsen.scarpet.interpreter.parser.Fluff.AbstractFunction;
+import adsen.scarpet.interpreter.parser.Fluff.AbstractOperator;
+import adsen.scarpet.interpreter.parser.Fluff.AbstractUnaryOperator;
+import adsen.scarpet.interpreter.parser.exception.ExpressionException;
+import adsen.scarpet.interpreter.parser.exception.InternalExpressionException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Optional compilation tier for user defined functions. Once a function has been called {@link FunctionCompiler#threshold}
+ * times, its body gets turned into a JVM class, defined as a hidden class, so that HotSpot can inline and optimise
+ * across the whole body instead of going through one megamorphic {@link LazyValue#evalValue} call per node.
+ * <p>
+ * The generated code calls the very same operators, functions and nodes as the tree does, with the same types and
+ * the same error handling, so it behaves exactly like the tree it came from. Nodes the compiler doesn't know are just
+ * called as they are, and if anything goes wrong while compiling, the function keeps running on the tree.
+ * <p>
+ * Every subtree which a lazy operator or function gets as a {@link LazyValue} (the body of a loop, the branches of
+ * an if, etc.) becomes a class of its own, implementing {@link LazyValue}, and an instance of it is handed to the
+ * operator or function. All of them share one array with the objects the code needs.
+ */
+public class FunctionCompiler {
+    /**
+     * Number of calls after which a function gets compiled, 0 or less turns compilation off.
+     */
+    private static volatile int threshold = 1000;
+    /**
+     * Number of function bodies which couldn't be compiled and keep running on the tree
+     */
+    private static final AtomicInteger failures = new AtomicInteger();
+
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    private static final String CONTEXT = "adsen/scarpet/interpreter/parser/Context";
+    private static final String LAZY_VALUE = "adsen/scarpet/interpreter/parser/LazyValue";
+    private static final String EXPRESSION = "adsen/scarpet/interpreter/parser/Expression";
+    private static final String TOKEN = "adsen/scarpet/interpreter/parser/Tokenizer$Token";
+    private static final String VALUE = "adsen/scarpet/interpreter/parser/value/Value";
+    private static final String LAZY_OPERATOR = "adsen/scarpet/interpreter/parser/Fluff$ILazyOperator";
+    private static final String LAZY_FUNCTION = "adsen/scarpet/interpreter/parser/Fluff$ILazyFunction";
+    private static final String OPERATOR = "adsen/scarpet/interpreter/parser/Fluff$IOperator";
+    private static final String UNARY_OPERATOR = "adsen/scarpet/interpreter/parser/Fluff$AbstractUnaryOperator";
+    private static final String FUNCTION = "adsen/scarpet/interpreter/parser/Fluff$IFunction";
+    private static final String VARIABLE_NODE = "adsen/scarpet/interpreter/parser/Nodes$VariableNode";
+    private static final String CALL_NODE = "adsen/scarpet/interpreter/parser/Nodes$CallNode";
+    private static final String FRAME_LAYOUT = "adsen/scarpet/interpreter/parser/FrameLayout";
+    private static final String COMPILER = "adsen/scarpet/interpreter/parser/FunctionCompiler";
+    private static final String COMPILER_CLASS = "adsen/scarpet/interpreter/parser/CompiledFunction";
+
+    private static final String EVAL_DESC = "(L" + CONTEXT + ";Ljava/lang/Integer;)L" + VALUE + ";";
+    private static final String BINARY_VALUE_DESC = "(L" + VALUE + ";)L" + VALUE + ";";
+
+    /**
+     * Built-in operators which are compiled into a direct call of the {@link adsen.scarpet.interpreter.parser.value.Value}
+     * method they stand for, so each of them gets its own call site in the generated code
+     */
+    private static final Map<String, String> directOperators = Map.of(
+            "+", "add",
+            "-", "subtract",
+            "*", "multiply",
+            "/", "divide"
+    );
+
+    public static int getCompileThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Sets after how many calls a user defined function gets compiled to JVM bytecode, 0 or less turns it off.
+     */
+    public static void setCompileThreshold(int calls) {
+        threshold = calls;
+    }
+
+    /**
+     * @return How many function bodies failed to compile since the program started, which then kept running on the tree
+     */
+    public static int getCompileFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Used by the generated code to give errors the same treatment the tree gives them in lazy operators
+     */
+    static RuntimeException rethrow(RuntimeException exc, Expression e, Tokenizer.Token t) {
+        if (exc instanceof InternalExpressionException) {
+            return new ExpressionException(e, t, exc.getMessage());
+        }
+        if (exc instanceof ArithmeticException) {
+            return new ExpressionException(e, t, "Your math is wrong, " + exc.getMessage());
+        }
+        return exc;
+    }
+
+    /**
+     * Counts a call of a function with the given body, compiling the body on the call that reaches the threshold. The
+     * compiled body is kept in the node, so every function sharing it, like the ones defined by each run of a cached
+     * program, uses it.
+     *
+     * @return The body to run, which is the compiled version once there is one, or else the body itself
+     */
+    static LazyValue body(Nodes.ScopeNode scope) {
+        LazyValue compiled = scope.compiled;
+        if (compiled != null)
+            return compiled;
+        int limit = threshold;
+        if (limit > 0 && scope.calls.incrementAndGet() == limit) {
+            compiled = compile(scope);
+            if (compiled != null) {
+                scope.compiled = compiled;
+                return compiled;
+            }
+        }
+        return scope;
+    }
+
+    /**
+     * @return The compiled version of the function body, or {@code null} if it couldn't be compiled, in which case it
+     * gets counted in {@link FunctionCompiler#getCompileFailures()}
+     */
+    static LazyValue compile(LazyValue body) {
+        try {
+            return new FunctionCompiler().define(body);
+        } catch (IOException | ReflectiveOperationException | LinkageError | IllegalStateException exc) {
+            // the class couldn't be written or the JVM refused it, like when a method is too large
+            failures.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Constant pool of the class being written, each entry gets a class of its own
+     */
+    private ConstantPool pool;
+    /**
+     * Objects the generated code needs, it gets them from the k field
+     */
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndices = new IdentityHashMap<>();
+    /**
+     * Subtrees which get a method (an entry) of their own, and where in constants their instance goes
+     */
+    private final List<LazyValue> entries = new ArrayList<>();
+    private final List<Integer> entrySlots = new ArrayList<>();
+    /**
+     * Lists of parameters for lazy functions, to fill with entry instances once they exist
+     */
+    private final Map<Integer, List<Integer>> paramLists = new HashMap<>();
+
+    private FunctionCompiler() {
+    }
+
+    private LazyValue define(LazyValue body) throws IOException, ReflectiveOperationException {
+        entry(body);
+        List<byte[]> classes = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) { // compiling an entry can add more of them
+            classes.add(entryClass(entries.get(i)));
+        }
+
+        Object[] k = constants.toArray();
+        LazyValue[] instances = new LazyValue[entries.size()];
+        for (int i = 0; i < instances.length; i++) {
+            Class<?> hidden = lookup.defineHiddenClass(classes.get(i), true).lookupClass();
+            instances[i] = (LazyValue) hidden.getConstructor(Object[].class).newInstance((Object) k);
+            k[entrySlots.get(i)] = instances[i];
+        }
+        paramLists.forEach((slot, entryIndices) -> {
+            List<LazyValue> params = new ArrayList<>(entryIndices.size());
+            for (int index : entryIndices) {
+                params.add(index < 0 ? (LazyValue) k[-index - 1] : instances[index]);
+            }
+            k[slot] = params;
+        });
+        return instances[0];
+    }
+
+    private int constant(Object o) {
+        return constantIndices.computeIfAbsent(o, x -> {
+            constants.add(x);
+            return constants.size() - 1;
+        });
+    }
+
+    private int reserveConstant() {
+        constants.add(null);
+        return constants.size() - 1;
+    }
+
+    private int entry(LazyValue node) {
+        entries.add(node);
+        entrySlots.add(reserveConstant());
+        return entries.size() - 1;
+    }
+
+    /**
+     * Where the LazyValue to hand to a lazy operator or function is, constants and variables are handed as they are
+     */
+    private int lazyArgument(LazyValue node) {
+        if (node instanceof Nodes.ConstantNode || node instanceof Nodes.VariableNode) {
+            return constant(node);
+        }
+        return entrySlots.get(entry(node));
+    }
+
+    private byte[] entryClass(LazyValue node) throws IOException {
+        pool = new ConstantPool();
+        Code code = new Code();
+        emit(code, node, -1);
+        code.op(0xb0, -1); // areturn
+        return classFile(method(0x0011, "evalValue", EVAL_DESC, code, 4));
+    }
+
+    /**
+     * Leaves the value of the node on the stack
+     *
+     * @param type The type to evaluate the node with, or -1 for the type the entry itself was called with
+     */
+    private void emit(Code code, LazyValue node, int type) {
+        if (node instanceof Nodes.ConstantNode constant) {
+            loadConstant(code, constant.value, VALUE);
+        } else if (node instanceof Nodes.VariableNode) {
+            loadConstant(code, node, VARIABLE_NODE);
+            code.op(0x2b, 1); // aload_1
+            pushType(code, type);
+            code.invoke(0xb6, pool.method(VARIABLE_NODE, "evalValue", EVAL_DESC), -2);
+        } else if (node instanceof Nodes.ScopeNode scope) {
+            code.op(0x2b, 1);
+            loadConstant(code, scope.layout, FRAME_LAYOUT);
+            code.invoke(0xb6, pool.method(CONTEXT, "enter", "(L" + FRAME_LAYOUT + ";)V"), -2);
+            emit(code, scope.body, type);
+        } else if (node instanceof Nodes.OperatorNode op) {
+            emitOperator(code, op, type);
+        } else if (node instanceof Nodes.CallNode call) {
+            loadConstant(code, call, CALL_NODE);
+            code.op(0x2b, 1);
+            pushType(code, type);
+            loadSlot(code, lazyArguments(call.args), "java/util/List");
+            code.invoke(0xb6, pool.method(CALL_NODE, "call", "(L" + CONTEXT + ";Ljava/lang/Integer;Ljava/util/List;)L" + VALUE + ";"), -3);
+        } else if (node instanceof Nodes.FunctionNode fn) {
+            emitFunction(code, fn, type);
+        } else {
+            loadConstant(code, node, LAZY_VALUE);
+            code.op(0x2b, 1);
+            pushType(code, type);
+            code.invokeInterface(pool.interfaceMethod(LAZY_VALUE, "evalValue", EVAL_DESC), 3, -2);
+        }
+    }
+
+    private void emitOperator(Code code, Nodes.OperatorNode op, int type) {
+        String surface = op.token.surface;
+        if (op.right != null && op.operator == Expression.getBuiltInOperator(";")) {
+            // lv1.evalValue(c, VOID); return lv2 - with the error handling of a lazy binary operator around the first
+            int start = code.size();
+            emit(code, op.left, Context.VOID);
+            code.op(0x57, -1); // pop
+            code.handle(start, code.size(), op);
+            emit(code, op.right, Context.NONE);
+        } else if (op.right != null && directOperators.containsKey(surface) && op.operator == Expression.getBuiltInOperator(surface)) {
+            emit(code, op.left, Context.NONE);
+            emit(code, op.right, Context.NONE);
+            code.op(0x5c, 2); // dup2
+            code.invoke(0xb8, pool.method(VALUE, "assertNotNull", "(Ljava/lang/Object;Ljava/lang/Object;)V"), -2);
+            code.invoke(0xb6, pool.method(VALUE, directOperators.get(surface), BINARY_VALUE_DESC), -1);
+        } else if (op.right == null && op.operator instanceof AbstractUnaryOperator) {
+            loadConstant(code, op.operator, UNARY_OPERATOR);
+            emit(code, op.left, Context.NONE);
+            code.invoke(0xb6, pool.method(UNARY_OPERATOR, "evalUnary", BINARY_VALUE_DESC), -1);
+        } else if (op.right != null && op.operator instanceof AbstractOperator) {
+            loadConstant(code, op.operator, OPERATOR);
+            emit(code, op.left, Context.NONE);
+            emit(code, op.right, Context.NONE);
+            code.invokeInterface(pool.interfaceMethod(OPERATOR, "eval", "(L" + VALUE + ";L" + VALUE + ";)L" + VALUE + ";"), 3, -2);
+        } else {
+            loadConstant(code, op.operator, LAZY_OPERATOR);
+            code.op(0x2b, 1);
+            pushType(code, type);
+            loadConstant(code, op.expression, EXPRESSION);
+            loadConstant(code, op.token, TOKEN);
+            loadSlot(code, lazyArgument(op.left), LAZY_VALUE);
+            if (op.right == null) {
+                code.op(0x01, 1); // aconst_null
+            } else {
+                loadSlot(code, lazyArgument(op.right), LAZY_VALUE);
+            }
+            code.invokeInterface(pool.interfaceMethod(LAZY_OPERATOR, "evalValue", "(L" + CONTEXT + ";Ljava/lang/Integer;L" + EXPRESSION
+                    + ";L" + TOKEN + ";L" + LAZY_VALUE + ";L" + LAZY_VALUE + ";)L" + VALUE + ";"), 7, -6);
+        }
+    }
+
+    private void emitFunction(Code code, Nodes.FunctionNode fn, int type) {
+        if (fn.function instanceof AbstractFunction) {
+            // same as AbstractFunction.evalValue, parameters are evaluated with no type, in order
+            loadConstant(code, fn.function, FUNCTION);
+            code.typeOp(0xbb, pool.classRef("java/util/ArrayList"), 1); // new
+            code.op(0x59, 1); // dup
+            code.pushInt(pool, fn.params.size());
+            code.invoke(0xb7, pool.method("java/util/ArrayList", "<init>", "(I)V"), -2);
+            for (LazyValue param : fn.params) {
+                code.op(0x59, 1);
+                emit(code, param, Context.NONE);
+                code.invokeInterface(pool.interfaceMethod("java/util/List", "add", "(Ljava/lang/Object;)Z"), 2, -1);
+                code.op(0x57, -1);
+            }
+            code.invokeInterface(pool.interfaceMethod(FUNCTION, "eval", "(Ljava/util/List;)L" + VALUE + ";"), 2, -1);
+            return;
+        }
+        int slot = lazyArguments(fn.params);
+        loadConstant(code, fn.function, LAZY_FUNCTION);
+        code.op(0x2b, 1);
+        pushType(code, type);
+        loadConstant(code, fn.expression, EXPRESSION);
+        loadConstant(code, fn.token, TOKEN);
+        loadSlot(code, slot, "java/util/List");
+        code.invokeInterface(pool.interfaceMethod(LAZY_FUNCTION, "evalValue", "(L" + CONTEXT + ";Ljava/lang/Integer;L" + EXPRESSION
+                + ";L" + TOKEN + ";Ljava/util/List;)L" + VALUE + ";"), 6, -5);
+    }
+
+    /**
+     * Where the list of LazyValues to hand to a lazy function is, with the same treatment as {@link FunctionCompiler#lazyArgument}
+     */
+    private int lazyArguments(List<LazyValue> nodes) {
+        List<Integer> params = new ArrayList<>(nodes.size());
+        for (LazyValue param : nodes) {
+            if (param instanceof Nodes.ConstantNode || param instanceof Nodes.VariableNode) {
+                params.add(-constant(param) - 1);
+            } else {
+                params.add(entry(param));
+            }
+        }
+        int slot = reserveConstant();
+        paramLists.put(slot, params);
+        return slot;
+    }
+
+    private void pushType(Code code, int type) {
+        if (type < 0) {
+            code.op(0x2c, 1); // aload_2
+        } else {
+            code.pushInt(pool, type);
+            code.invoke(0xb8, pool.method("java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;"), 0);
+        }
+    }
+
+    private void loadConstant(Code code, Object o, String type) {
+        loadSlot(code, constant(o), type);
+    }
+
+    private void loadSlot(Code code, int slot, String type) {
+        code.op(0x2a, 1); // aload_0
+        code.field(0xb4, pool.field(COMPILER_CLASS, "k", "[Ljava/lang/Object;"), 0); // getfield
+        code.pushInt(pool, slot);
+        code.op(0x32, -1); // aaload
+        code.typeOp(0xc0, pool.classRef(type), 0); // checkcast
+    }
+
+    // class file writing
+
+    private byte[] classFile(byte[] evalValue) throws IOException {
+        byte[] constructor = constructor();
+        int thisClass = pool.classRef(COMPILER_CLASS);
+        int superClass = pool.classRef("java/lang/Object");
+        int lazyValue = pool.classRef(LAZY_VALUE);
+        int kName = pool.utf8("k");
+        int kDesc = pool.utf8("[Ljava/lang/Object;");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(49); // no stack map frames needed
+        pool.write(out);
+        out.writeShort(0x0031); // public final super
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);
+        out.writeShort(lazyValue);
+        out.writeShort(1);
+        out.writeShort(0x0010); // final
+        out.writeShort(kName);
+        out.writeShort(kDesc);
+        out.writeShort(0);
+        out.writeShort(2);
+        out.write(constructor);
+        out.write(evalValue);
+        out.writeShort(0);
+        return bytes.toByteArray();
+    }
+
+    private byte[] constructor() throws IOException {
+        Code code = new Code();
+        code.op(0x2a, 1); // aload_0
+        code.invoke(0xb7, pool.method("java/lang/Object", "<init>", "()V"), -1);
+        code.op(0x2a, 1);
+        code.op(0x2b, 1); // aload_1
+        code.field(0xb5, pool.field(COMPILER_CLASS, "k", "[Ljava/lang/Object;"), -2); // putfield
+        code.op(0xb1, 0); // return
+        return method(0x0001, "<init>", "([Ljava/lang/Object;)V", code, 2);
+    }
+
+    private byte[] method(int access, String name, String descriptor, Code code, int maxLocals) throws IOException {
+        int codeName = pool.utf8("Code");
+        int nameIndex = pool.utf8(name);
+        int descIndex = pool.utf8(descriptor);
+        int rethrow = -1;
+        if (!code.handlers.isEmpty()) {
+            rethrow = pool.method(COMPILER, "rethrow", "(Ljava/lang/RuntimeException;L" + EXPRESSION + ";L" + TOKEN
+                    + ";)Ljava/lang/RuntimeException;");
+        }
+        // the handlers go after the code, so there's no need to jump around them
+        List<int[]> table = new ArrayList<>();
+        for (Handler handler : code.handlers) {
+            int at = code.size();
+            code.depth = 1; // the exception
+            code.op(0x4e, -1); // astore_3
+            code.op(0x2d, 1); // aload_3
+            loadConstant(code, handler.op.expression, EXPRESSION);
+            loadConstant(code, handler.op.token, TOKEN);
+            code.invoke(0xb8, rethrow, -2);
+            code.op(0xbf, -1); // athrow
+            table.add(new int[]{handler.start, handler.end, at, pool.classRef("java/lang/RuntimeException")});
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(access);
+        out.writeShort(nameIndex);
+        out.writeShort(descIndex);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + code.size() + 8 * table.size());
+        out.writeShort(code.maxDepth);
+        out.writeShort(maxLocals);
+        out.writeInt(code.size());
+        out.write(code.bytes.toByteArray());
+        out.writeShort(table.size());
+        for (int[] entry : table) {
+            for (int value : entry) out.writeShort(value);
+        }
+        out.writeShort(0);
+        return bytes.toByteArray();
+    }
+
+    private record Handler(int start, int end, Nodes.OperatorNode op) {
+    }
+
+    /**
+     * Bytecode of one method, keeping track of how deep the operand stack gets
+     */
+    private static class Code {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final Deque<Handler> handlers = new ArrayDeque<>();
+        int depth = 0;
+        int maxDepth = 0;
+        int size() {
+            return bytes.size();
+        }
+
+        void u1(int b) {
+            bytes.write(b);
+        }
+
+        void u2(int s) {
+            u1(s >> 8);
+            u1(s);
+        }
+
+        void op(int opcode, int stackChange) {
+            u1(opcode);
+            depth += stackChange;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+
+        void typeOp(int opcode, int classIndex, int stackChange) {
+            op(opcode, stackChange);
+            u2(classIndex);
+        }
+
+        void field(int opcode, int fieldIndex, int stackChange) {
+            op(opcode, stackChange);
+            u2(fieldIndex);
+        }
+
+        void invoke(int opcode, int methodIndex, int stackChange) {
+            op(opcode, stackChange);
+            u2(methodIndex);
+        }
+
+        void invokeInterface(int methodIndex, int argumentSlots, int stackChange) {
+            op(0xb9, stackChange);
+            u2(methodIndex);
+            u1(argumentSlots);
+            u1(0);
+        }
+
+        void pushInt(ConstantPool pool, int value) {
+            if (value >= -1 && value <= 5) {
+                op(0x03 + value, 1); // iconst_<n>
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(0x10, 1); // bipush
+                u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op(0x11, 1); // sipush
+                u2(value);
+            } else {
+                op(0x13, 1); // ldc_w
+                u2(pool.integer(value));
+            }
+        }
+
+        /**
+         * The code between start and end gets the error handling of the lazy operator
+         */
+        void handle(int start, int end, Nodes.OperatorNode op) {
+            handlers.addLast(new Handler(start, end, op));
+        }
+    }
+
+    private static class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> indices = new HashMap<>();
+        private int count = 1;
+
+        private interface EntryWriter {
+            void write(DataOutputStream out) throws IOException;
+        }
+
+        private int entry(String key, EntryWriter writer) {
+            Integer index = indices.get(key);
+            if (index != null) return index;
+            try {
+                writer.write(out);
+            } catch (IOException e) { // can't happen writing to memory
+                throw new IllegalStateException(e);
+            }
+            indices.put(key, count);
+            return count++;
+        }
+
+        int utf8(String s) {
+            return entry("U" + s, o -> {
+                o.writeByte(1);
+                o.writeUTF(s);
+            });
+        }
+
+        int integer(int i) {
+            return entry("I" + i, o -> {
+                o.writeByte(3);
+                o.writeInt(i);
+            });
+        }
+
+        int classRef(String name) {
+            int nameIndex = utf8(name);
+            return entry("C" + name, o -> {
+                o.writeByte(7);
+                o.writeShort(nameIndex);
+            });
+        }
+
+        private int nameAndType(String name, String descriptor) {
+            int nameIndex = utf8(name);
+            int descIndex = utf8(descriptor);
+            return entry("N" + name + ":" + descriptor, o -> {
+                o.writeByte(12);
+                o.writeShort(nameIndex);
+                o.writeShort(descIndex);
+            });
+        }
+
+        private int member(int tag, String owner, String name, String descriptor) {
+            int ownerIndex = classRef(owner);
+            int natIndex = nameAndType(name, descriptor);
+            return entry(tag + owner + "." + name + ":" + descriptor, o -> {
+                o.writeByte(tag);
+                o.writeShort(ownerIndex);
+                o.writeShort(natIndex);
+            });
+        }
+
+        int field(String owner, String name, String descriptor) {
+            return member(9, owner, name, descriptor);
+        }
+
+        int method(String owner, String name, String descriptor) {
+            return member(10, owner, name, descriptor);
+        }
+
+        int interfaceMethod(String owner, String name, String descriptor) {
+            return member(11, owner, name, descriptor);
+        }
+
+        void write(DataOutputStream to) throws IOException {
+            to.writeShort(count);
+            to.write(bytes.toByteArray());
+        }
+    }
+}
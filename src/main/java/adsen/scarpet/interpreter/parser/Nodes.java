@@ -0,0 +1,416 @@
+package adsen.scarpet.interpreter.parser;
+
+import adsen.scarpet.interpreter.parser.Fluff.ILazyFunction;
+import adsen.scarpet.interpreter.parser.Fluff.ILazyOperator;
+import adsen.scarpet.interpreter.parser.Fluff.IOperator;
+import adsen.scarpet.interpreter.parser.exception.ExpressionException;
+import adsen.scarpet.interpreter.parser.exception.InternalExpressionException;
+import adsen.scarpet.interpreter.parser.value.NumericValue;
+import adsen.scarpet.interpreter.parser.value.Value;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Nodes of the AST made in {@link Expression#getAST()}. Operators and functions are resolved when the tree is built,
+ * so evaluating a node doesn't need to look anything up.
+ */
+abstract class Nodes {
+
+    /**
+     * Works out pure operators and functions whose arguments are all constants, giving a constant node instead.
+     * If that fails in any way, the node is left as it is, so the error is only thrown if it ever gets evaluated, which
+     * it may well never be, like in the branch of an {@code if} that isn't taken.
+     */
+    static LazyValue fold(LazyValue node) {
+        if (node instanceof OperatorNode op) {
+            if (!op.operator.isPure() || !isConstant(op.left) || (op.right != null && !isConstant(op.right)))
+                return node;
+        } else if (node instanceof FunctionNode fn) {
+            if (!fn.function.isPure())
+                return node;
+            for (LazyValue param : fn.params)
+                if (!isConstant(param)) return node;
+        } else {
+            return node;
+        }
+        try {
+            return new ConstantNode(node.evalValue(null));
+        } catch (RuntimeException ignored) {
+            return node;
+        }
+    }
+
+    /**
+     * Node for the given operator, specialising the built-in arithmetic and comparison operators
+     */
+    static OperatorNode operator(ILazyOperator operator, Expression expression, Tokenizer.Token token, LazyValue left, LazyValue right) {
+        if (right != null) {
+            ArithmeticNode.Kind kind = ArithmeticNode.Kind.of(token.surface);
+            if (kind != null && operator == Expression.getBuiltInOperator(token.surface))
+                return new ArithmeticNode(kind, operator, expression, token, left, right);
+        }
+        return new OperatorNode(operator, expression, token, left, right);
+    }
+
+    static boolean isConstant(LazyValue node) {
+        return node instanceof ConstantNode;
+    }
+
+    /**
+     * Gives every local variable in the tree a slot in the layout of the function body it's in. Bodies of functions
+     * defined with {@code ->} get their own layout, and are wrapped in a {@link ScopeNode} with it.
+     */
+    static void resolve(LazyValue node, FrameLayout layout) {
+        if (node instanceof VariableNode variable) {
+            if (!variable.name.startsWith("global_")) {
+                variable.layout = layout;
+                variable.slot = layout.add(variable.name);
+            }
+        } else if (node instanceof OperatorNode op) {
+            resolve(op.left, layout);
+            if (op.right == null)
+                return;
+            if ("->".equals(op.token.surface) && op.left instanceof FunctionNode) {
+                FrameLayout body = new FrameLayout();
+                resolve(op.right, body);
+                if (op.left instanceof CallNode signature && signature.args.stream().allMatch(arg -> arg instanceof VariableNode))
+                    markTailCalls(op.right, signature.name);
+                op.right = new ScopeNode(body, op.right);
+            } else {
+                resolve(op.right, layout);
+            }
+        } else if (node instanceof FunctionNode fn) {
+            for (LazyValue param : fn.params)
+                resolve(param, layout);
+        }
+    }
+
+    /**
+     * Finds calls of the function to itself whose value is straight away the value of the function: the body itself,
+     * what comes after the last {@code ;}, the branches of an {@code if} and what gets returned with {@code return}.
+     * Functions with {@code outer} arguments don't get any, as those need to be handed back call by call.
+     */
+    private static void markTailCalls(LazyValue node, String function) {
+        if (node instanceof CallNode call) {
+            if (call.name.equals(function))
+                call.tailCall = true;
+        } else if (node instanceof OperatorNode op) {
+            if (op.right != null && op.token.surface.equals(";") && op.operator == Expression.getBuiltInOperator(";"))
+                markTailCalls(op.right, function);
+        } else if (node instanceof FunctionNode fn) {
+            String name = fn.token.surface.toLowerCase(Locale.ROOT);
+            if (fn.function != Expression.getBuiltInFunction(name))
+                return;
+            if (name.equals("if")) {
+                for (int i = 1; i < fn.params.size(); i += 2)
+                    markTailCalls(fn.params.get(i), function);
+                if (fn.params.size() % 2 == 1)
+                    markTailCalls(fn.params.get(fn.params.size() - 1), function);
+            } else if (name.equals("return") && fn.params.size() == 1) {
+                markTailCalls(fn.params.get(0), function);
+            }
+        }
+    }
+
+    /**
+     * What a call of a function to itself in a tail position gives back instead of calling it, so that the function
+     * can run again with the new arguments instead of calling itself, see {@link UserDefinedFunction#call}. It never
+     * makes it outside of the function.
+     */
+    static final class TailCall extends Value {
+        final List<Value> args;
+        final Integer type;
+
+        TailCall(List<Value> args, Integer type) {
+            this.args = args;
+            this.type = type;
+        }
+
+        @Override
+        public String getString() {
+            return "tail call";
+        }
+
+        @Override
+        public String getTypeString() {
+            return "tail call";
+        }
+
+        @Override
+        public boolean getBoolean() {
+            return false;
+        }
+    }
+
+    /**
+     * A literal, or anything else that was worked out while compiling. The value is shared by every evaluation, maybe
+     * on several threads at once, so it is marked as {@link Value#share() shared}, making anything that binds it to a
+     * variable get a copy.
+     */
+    static final class ConstantNode implements LazyValue {
+        final Value value;
+
+        ConstantNode(Value value) {
+            this.value = value.share();
+        }
+
+        @Override
+        public Value evalValue(Context c, Integer type) {
+            return value;
+        }
+    }
+
+    /**
+     * A binary operator, or a unary one if {@link OperatorNode#right} is {@code null}
+     */
+    static class OperatorNode implements LazyValue {
+        final ILazyOperator operator;
+        final Expression expression;
+        final Tokenizer.Token token;
+        final LazyValue left;
+        LazyValue right; // function bodies get wrapped in a ScopeNode once variables are resolved
+
+        OperatorNode(ILazyOperator operator, Expression expression, Tokenizer.Token token, LazyValue left, LazyValue right) {
+            this.operator = operator;
+            this.expression = expression;
+            this.token = token;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Value evalValue(Context c, Integer type) {
+            return operator.evalValue(c, type, expression, token, left, right);
+        }
+    }
+
+    /**
+     * A built-in arithmetic or comparison operator, which keeps track of the types of its operands. As long as both of
+     * them are always plain numbers, it works them out straight from the doubles, without going through the
+     * {@link Value} methods. Once anything else shows up, it goes back to the operator for good.
+     */
+    static final class ArithmeticNode extends OperatorNode {
+        private static final int UNINITIALIZED = 0;
+        private static final int NUMERIC = 1;
+        private static final int GENERIC = 2;
+
+        enum Kind {
+            ADD("+"), SUBTRACT("-"), MULTIPLY("*"), DIVIDE("/"), MODULO("%"), POWER("^"),
+            GREATER(">"), GREATER_EQUAL(">="), LESS("<"), LESS_EQUAL("<="), EQUAL("=="), NOT_EQUAL("!=");
+
+            private static final Map<String, Kind> bySurface = new HashMap<>();
+
+            static {
+                for (Kind kind : values())
+                    bySurface.put(kind.surface, kind);
+            }
+
+            final String surface;
+
+            Kind(String surface) {
+                this.surface = surface;
+            }
+
+            static Kind of(String surface) {
+                return bySurface.get(surface);
+            }
+        }
+
+        final Kind kind;
+        private int state = UNINITIALIZED;
+
+        ArithmeticNode(Kind kind, ILazyOperator operator, Expression expression, Tokenizer.Token token, LazyValue left, LazyValue right) {
+            super(operator, expression, token, left, right);
+            this.kind = kind;
+        }
+
+        @Override
+        public Value evalValue(Context c, Integer type) {
+            return apply(left.evalValue(c), right.evalValue(c));
+        }
+
+        Value apply(Value v1, Value v2) {
+            if (state != GENERIC) {
+                if (v1 != null && v2 != null && v1.getClass() == NumericValue.class && v2.getClass() == NumericValue.class) {
+                    state = NUMERIC;
+                    return numeric((NumericValue) v1, (NumericValue) v2);
+                }
+                state = GENERIC;
+            }
+            return ((IOperator) operator).eval(v1, v2);
+        }
+
+        /**
+         * Same as what the operator does with two numbers
+         */
+        private Value numeric(NumericValue a, NumericValue b) {
+            return switch (kind) {
+                case ADD -> a.add(b);
+                case SUBTRACT -> a.subtract(b);
+                case MULTIPLY -> a.multiply(b);
+                case DIVIDE -> a.divide(b);
+                case MODULO -> a.modulo(b);
+                case POWER -> NumericValue.of(Math.pow(a.getDouble(), b.getDouble()));
+                case GREATER -> a.compareTo(b) > 0 ? Value.TRUE : Value.FALSE;
+                case GREATER_EQUAL -> a.compareTo(b) >= 0 ? Value.TRUE : Value.FALSE;
+                case LESS -> a.compareTo(b) < 0 ? Value.TRUE : Value.FALSE;
+                case LESS_EQUAL -> a.compareTo(b) <= 0 ? Value.TRUE : Value.FALSE;
+                case EQUAL -> a.equals(b) ? Value.TRUE : Value.FALSE;
+                case NOT_EQUAL -> a.equals(b) ? Value.FALSE : Value.TRUE;
+            };
+        }
+    }
+
+    static class FunctionNode implements LazyValue {
+        final ILazyFunction function;
+        final Expression expression;
+        final Tokenizer.Token token;
+        final List<LazyValue> params;
+
+        FunctionNode(ILazyFunction function, Expression expression, Tokenizer.Token token, List<LazyValue> params) {
+            this.function = function;
+            this.expression = expression;
+            this.token = token;
+            this.params = params;
+        }
+
+        @Override
+        public Value evalValue(Context c, Integer type) {
+            return function.evalValue(c, type, expression, token, params);
+        }
+    }
+
+    /**
+     * A call to a user defined function, i.e. to the {@code .} function with the name of the function as the last
+     * parameter. It remembers which function it called last time, in which host, which it can call again straight
+     * away as long as no function was defined or undefined in that host since.
+     */
+    static final class CallNode extends FunctionNode {
+        private record Target(ScriptHost host, int version, UserDefinedFunction function) {
+        }
+
+        final String name;
+        /**
+         * Parameters without the name of the function at the end
+         */
+        final List<LazyValue> args;
+        /**
+         * Whether this is a call of the function it is in to itself, in a tail position
+         */
+        boolean tailCall = false;
+        private Target target = null;
+
+        CallNode(ILazyFunction function, Expression expression, Tokenizer.Token token, List<LazyValue> params, String name) {
+            super(function, expression, token, params);
+            this.name = name;
+            this.args = List.copyOf(params.subList(0, params.size() - 1));
+        }
+
+        @Override
+        public Value evalValue(Context c, Integer type) {
+            return call(c, type, args);
+        }
+
+        /**
+         * Calls the function with the given arguments, which may be compiled versions of {@link CallNode#args}
+         */
+        Value call(Context c, Integer type, List<LazyValue> arguments) {
+            if (type == Context.SIGNATURE) // function definition, not a call
+                return super.evalValue(c, type);
+            ScriptHost host = c.host;
+            Target cached = target;
+            UserDefinedFunction udf;
+            if (cached != null && cached.host == host && cached.version == host.getFunctionVersion()) {
+                udf = cached.function;
+            } else {
+                udf = host.getGlobalFunctions().get(name);
+                if (udf == null)
+                    throw new ExpressionException(expression, token, "Function " + name + " is not defined yet");
+                target = new Target(host, host.getFunctionVersion(), udf);
+            }
+            try {
+                if (tailCall && c.function == udf && arguments.size() == udf.getArguments().size()) {
+                    List<Value> values = new ArrayList<>(arguments.size());
+                    for (LazyValue argument : arguments)
+                        values.add(argument.evalValue(c));
+                    return new TailCall(values, type);
+                }
+                return udf.call(c, type, udf.expression, udf.token, arguments);
+            } catch (InternalExpressionException exc) {
+                throw new ExpressionException(expression, token, exc.getMessage());
+            } catch (ArithmeticException exc) {
+                throw new ExpressionException(expression, token, "Your math is wrong, " + exc.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A local or global variable. Local variables have a slot in the layout of the code around them, which is used
+     * directly whenever the node runs in a context with that layout, and the name is used otherwise.
+     */
+    static final class VariableNode implements LazyValue {
+        final String name;
+        FrameLayout layout = null;
+        int slot = -1;
+
+        VariableNode(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Value evalValue(Context c, Integer type) {
+            if (c.layout == layout && slot >= 0) {
+                LazyValue variable = c.slots[slot];
+                if (variable == null) {
+                    variable = c.host.globalVariables.get(name);
+                    if (variable == null) { // new variable
+                        variable = (cc, tt) -> Value.ZERO.reboundedTo(name);
+                        c.slots[slot] = variable;
+                    }
+                }
+                return variable.evalValue(c);
+            }
+            if (!c.isAVariable(name)) // new variable
+            {
+                c.setVariable(name, (cc, tt) -> Value.ZERO.reboundedTo(name));
+            }
+            return c.getVariable(name).evalValue(c);
+        }
+    }
+
+    /**
+     * Root of the whole expression or of a function body, makes the context use the slots of its layout
+     */
+    static final class ScopeNode implements LazyValue {
+        final FrameLayout layout;
+        final LazyValue body;
+        /**
+         * The code compiled for the {@link VirtualMachine}, once it's been needed
+         */
+        VirtualMachine.Chunk chunk = null;
+        /**
+         * The body compiled by the {@link FunctionCompiler}, once functions with it have been called often enough
+         */
+        volatile LazyValue compiled = null;
+        /**
+         * Calls of functions with this body, see {@link FunctionCompiler#body}
+         */
+        final AtomicInteger calls = new AtomicInteger();
+
+        ScopeNode(FrameLayout layout, LazyValue body) {
+            this.layout = layout;
+            this.body = body;
+        }
+
+        @Override
+        public Value evalValue(Context c, Integer type) {
+            c.enter(layout);
+            return body.evalValue(c, type);
+        }
+    }
+}
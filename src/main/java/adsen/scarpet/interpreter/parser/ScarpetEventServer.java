@@ -79,7 +79,7 @@ public class ScarpetEventServer
                 // impossible call to add
                 return false;
             }
-            UserDefinedFunction udf = host.globalFunctions.get(funName);
+            UserDefinedFunction udf = host.getGlobalFunctions().get(funName);
             if (udf == null || udf.getArguments().size() != reqArgs)
             {
                 // call won't match arguments
@@ -37,7 +37,7 @@ public class ScarpetScriptServer {
         if (host == null) {
             return;
         }
-        for (String fun : host.globalFunctions.keySet()) {
+        for (String fun : host.getGlobalFunctions().keySet()) {
             if (!fun.startsWith("__on_"))
                 continue;
             String event = fun.replaceFirst("__on_", "");
@@ -99,7 +99,7 @@ public class ScarpetScriptServer {
         if (hostname != null)
             host = modules.get(hostname);
         try {
-            host.callUDF(host.globalFunctions.get(udf_name), argv);
+            host.callUDF(host.getGlobalFunctions().get(udf_name), argv);
         } catch (NullPointerException | InvalidCallbackException npe) {
             return false;
         }
@@ -8,6 +8,7 @@ import adsen.scarpet.interpreter.parser.value.Value;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
@@ -17,22 +18,54 @@ import java.util.stream.Collectors;
 import static java.lang.Math.max;
 
 public class ScriptHost {
+    /**
+     * Built-in constants. They can't be assigned to, so they get put straight into the code while compiling.
+     */
+    static final Map<String, Value> constants = Map.of(
+            "euler", NumericValue.euler,
+            "avogadro", NumericValue.avogadro,
+            "pi", NumericValue.PI,
+            "phi", NumericValue.PHI,
+            "null", Value.NULL,
+            "true", Value.TRUE,
+            "false", Value.FALSE
+    );
+
+    /**
+     * What runs the code of the expressions evaluated with this host
+     */
+    public enum Engine {
+        /**
+         * Evaluates the AST directly
+         */
+        TREE,
+        /**
+         * Compiles the AST to instructions for {@link VirtualMachine}
+         */
+        VM
+    }
+
+    /**
+     * Functions defined by scripts. Changes go through {@link ScriptHost#defineFunction} and
+     * {@link ScriptHost#undefineFunction}, so calls which remember the function they call find out about them.
+     */
+    private final Map<String, UserDefinedFunction> globalFunctions = new HashMap<>();
+    private final Map<String, UserDefinedFunction> globalFunctionsView = Collections.unmodifiableMap(globalFunctions);
 
-    public final Map<String, UserDefinedFunction> globalFunctions = new HashMap<>();
+    /**
+     * Goes up every time a function is defined or undefined
+     */
+    private volatile int functionVersion = 0;
 
     public final Map<String, LazyValue> globalVariables = new HashMap<>();
 
     private final String name;
 
+    private Engine engine = Engine.TREE;
+
     ScriptHost(String name) {
         this.name = name;
-        globalVariables.put("euler", (c, t) -> NumericValue.euler);
-        globalVariables.put("avogadro", (c, t) -> NumericValue.avogadro);
-        globalVariables.put("pi", (c, t) -> NumericValue.PI);
-        globalVariables.put("phi", (c, t) -> NumericValue.PHI);
-        globalVariables.put("null", (c, t) -> Value.NULL);
-        globalVariables.put("true", (c, t) -> Value.TRUE);
-        globalVariables.put("false", (c, t) -> Value.FALSE);
+        constants.forEach((constant, value) -> globalVariables.put(constant, (c, t) -> value));
 
         //special variables for second order functions so we don't need to check them all the time
         globalVariables.put("_", (c, t) -> Value.ZERO);
@@ -44,6 +77,36 @@ public class ScriptHost {
         return name;
     }
 
+    public Engine getEngine() {
+        return engine;
+    }
+
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+
+    public void defineFunction(String name, UserDefinedFunction function) {
+        globalFunctions.put(name, function);
+        functionVersion++;
+    }
+
+    public void undefineFunction(String name) {
+        if (globalFunctions.remove(name) != null)
+            functionVersion++;
+    }
+
+    int getFunctionVersion() {
+        return functionVersion;
+    }
+
+    /**
+     * @return The functions defined by scripts, as a map which can't be changed, see
+     * {@link ScriptHost#defineFunction} and {@link ScriptHost#undefineFunction}
+     */
+    public Map<String, UserDefinedFunction> getGlobalFunctions() {
+        return globalFunctionsView;
+    }
+
     public Expression getExpressionForFunction(String name) {
         return globalFunctions.get(name).getExpression();
     }
@@ -1,5 +1,7 @@
 package adsen.scarpet.interpreter.parser;
 
+import adsen.scarpet.interpreter.parser.value.Value;
+
 import java.util.List;
 
 public abstract class UserDefinedFunction extends Fluff.AbstractLazyFunction implements Fluff.ILazyFunction {
@@ -14,6 +16,22 @@ public abstract class UserDefinedFunction extends Fluff.AbstractLazyFunction imp
         token = t;
     }
 
+    /**
+     * Calls the function, giving back its value straight away
+     */
+    public abstract Value call(Context c, Integer type, Expression e, Tokenizer.Token t, List<LazyValue> lazyParams);
+
+    @Override
+    public LazyValue lazyEval(Context c, Integer type, Expression e, Tokenizer.Token t, List<LazyValue> lazyParams) {
+        Value retVal = call(c, type, e, t, lazyParams);
+        return (cc, tt) -> retVal;
+    }
+
+    @Override
+    public Value evalValue(Context c, Integer type, Expression e, Tokenizer.Token t, List<LazyValue> lazyParams) {
+        return call(c, type, e, t, lazyParams);
+    }
+
     public List<String> getArguments() {
         return arguments;
     }
@@ -0,0 +1,518 @@
+package adsen.scarpet.interpreter.parser;
+
+import adsen.scarpet.interpreter.parser.Fluff.AbstractFunction;
+import adsen.scarpet.interpreter.parser.Fluff.AbstractOperator;
+import adsen.scarpet.interpreter.parser.Fluff.AbstractUnaryOperator;
+import adsen.scarpet.interpreter.parser.Fluff.IFunction;
+import adsen.scarpet.interpreter.parser.Fluff.ILazyFunction;
+import adsen.scarpet.interpreter.parser.Fluff.ILazyOperator;
+import adsen.scarpet.interpreter.parser.Fluff.IOperator;
+import adsen.scarpet.interpreter.parser.value.ListValue;
+import adsen.scarpet.interpreter.parser.value.NumericValue;
+import adsen.scarpet.interpreter.parser.value.Value;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The bytecode engine, used instead of the tree when {@link ScriptHost#getEngine()} is {@link ScriptHost.Engine#VM}.
+ * <p>
+ * Code is turned into a {@link Chunk}: a flat array of instructions working on an operand stack, and the constants
+ * they use. Eager operators and functions, {@code ;}, {@code if}, {@code loop} and {@code +=} on a variable run
+ * straight in the chunk, so their operands don't need a {@link LazyValue} or a Java call of their own. Arguments of
+ * other lazy operators and functions become chunks of their own, which are handed to them as {@link LazyValue}s.
+ * <p>
+ * Lazy operators and functions turn {@link adsen.scarpet.interpreter.parser.exception.InternalExpressionException}s
+ * thrown while evaluating their arguments into errors at their own position in the code, so the chunk keeps the
+ * range of instructions each of them covers and does the same.
+ */
+abstract class VirtualMachine {
+    /**
+     * Pushes constants[a]
+     */
+    private static final int CONST = 0;
+    /**
+     * Pushes the value of the variable node constants[a]
+     */
+    private static final int LOAD = 1;
+    private static final int POP = 2;
+    /**
+     * Makes the context use the frame layout constants[a]
+     */
+    private static final int ENTER = 3;
+    /**
+     * Applies the unary operator constants[a] to the top of the stack
+     */
+    private static final int UNARY = 4;
+    /**
+     * Applies the eager binary operator constants[a] to the top two values
+     */
+    private static final int BINARY = 5;
+    /**
+     * Same as BINARY, for the arithmetic node constants[a]
+     */
+    private static final int ARITHMETIC = 6;
+    /**
+     * Calls the eager function constants[a] with the top b values
+     */
+    private static final int CALL = 7;
+    /**
+     * Evaluates the lazy operator call constants[a] with type b
+     */
+    private static final int LAZY_OPERATOR = 8;
+    /**
+     * Evaluates the lazy function call constants[a] with type b
+     */
+    private static final int LAZY_CALL = 9;
+    /**
+     * Evaluates the node constants[a] with type b, for nodes the compiler doesn't know
+     */
+    private static final int NODE = 10;
+    private static final int JUMP = 11;
+    private static final int JUMP_IF_FALSE = 12;
+    private static final int JUMP_IF_TRUE = 13;
+    /**
+     * {@code variable += value} for the operator node constants[a]
+     */
+    private static final int ADD_ASSIGN = 14;
+    /**
+     * Starts loop a, popping the number of iterations
+     */
+    private static final int LOOP_START = 15;
+    /**
+     * Jumps to b if loop a is done, otherwise sets _ for the next iteration
+     */
+    private static final int LOOP_TEST = 16;
+    /**
+     * Pops the value of the current iteration of loop a
+     */
+    private static final int LOOP_BODY = 17;
+    /**
+     * Goes to the next iteration of loop a, starting at b
+     */
+    private static final int LOOP_NEXT = 18;
+    /**
+     * Ends loop a, restoring _ and pushing the value of the last iteration
+     */
+    private static final int LOOP_END = 19;
+    private static final int RETURN = 20;
+    /**
+     * Calls the user function of the call constants[a] with type b
+     */
+    private static final int USER_CALL = 21;
+
+    /**
+     * The chunk for the tree, made once and kept with it
+     */
+    static Chunk chunkOf(LazyValue ast) {
+        if (ast instanceof Nodes.ScopeNode scope) {
+            Chunk chunk = scope.chunk;
+            if (chunk == null) {
+                chunk = compile(ast);
+                scope.chunk = chunk;
+            }
+            return chunk;
+        }
+        return compile(ast);
+    }
+
+    private static Chunk compile(LazyValue node) {
+        ChunkBuilder builder = new ChunkBuilder();
+        builder.compile(node, -1);
+        builder.emit(RETURN, 0);
+        return builder.build(node instanceof Nodes.ScopeNode scope ? scope.layout : null);
+    }
+
+    /**
+     * A call to a lazy operator, with its operands ready to be handed to it
+     */
+    private record LazyOperatorCall(ILazyOperator operator, Expression expression, Tokenizer.Token token,
+                                    LazyValue left, LazyValue right) {
+    }
+
+    private record LazyFunctionCall(ILazyFunction function, Expression expression, Tokenizer.Token token,
+                                    List<LazyValue> params) {
+    }
+
+    private record UserFunctionCall(Nodes.CallNode node, List<LazyValue> args) {
+    }
+
+    /**
+     * Where errors thrown in a range of instructions get reported, like the lazy operator or function does in the tree
+     */
+    private record Handler(int start, int end, Expression expression, Tokenizer.Token token) {
+    }
+
+    static final class Chunk implements LazyValue {
+        private final int[] code;
+        private final Object[] constants;
+        private final Handler[] handlers;
+        private final int maxStack;
+        private final int loops;
+        /**
+         * Layout of the function body or expression this is the chunk of, if it is one
+         */
+        final FrameLayout layout;
+
+        private Chunk(int[] code, Object[] constants, Handler[] handlers, int maxStack, int loops, FrameLayout layout) {
+            this.code = code;
+            this.constants = constants;
+            this.handlers = handlers;
+            this.maxStack = maxStack;
+            this.loops = loops;
+            this.layout = layout;
+        }
+
+        @Override
+        public Value evalValue(Context c, Integer type) {
+            Value[] stack = new Value[maxStack];
+            int sp = 0;
+            long[] counters = null;
+            long[] limits = null;
+            LazyValue[] savedUnderscores = null;
+            Value[] lastValues = null;
+            if (loops > 0) {
+                counters = new long[loops];
+                limits = new long[loops];
+                savedUnderscores = new LazyValue[loops];
+                lastValues = new Value[loops];
+            }
+            int[] code = this.code;
+            Object[] constants = this.constants;
+            int pc = 0;
+            int at = 0;
+            try {
+                while (true) {
+                    at = pc;
+                    switch (code[pc]) {
+                        case CONST -> {
+                            stack[sp++] = (Value) constants[code[pc + 1]];
+                            pc += 2;
+                        }
+                        case LOAD -> {
+                            stack[sp++] = ((Nodes.VariableNode) constants[code[pc + 1]]).evalValue(c, Context.NONE);
+                            pc += 2;
+                        }
+                        case POP -> {
+                            stack[--sp] = null;
+                            pc += 1;
+                        }
+                        case ENTER -> {
+                            c.enter((FrameLayout) constants[code[pc + 1]]);
+                            pc += 2;
+                        }
+                        case UNARY -> {
+                            stack[sp - 1] = ((AbstractUnaryOperator) constants[code[pc + 1]]).evalUnary(stack[sp - 1]);
+                            pc += 2;
+                        }
+                        case BINARY -> {
+                            Value v2 = stack[--sp];
+                            stack[sp - 1] = ((IOperator) constants[code[pc + 1]]).eval(stack[sp - 1], v2);
+                            stack[sp] = null;
+                            pc += 2;
+                        }
+                        case ARITHMETIC -> {
+                            Value v2 = stack[--sp];
+                            stack[sp - 1] = ((Nodes.ArithmeticNode) constants[code[pc + 1]]).apply(stack[sp - 1], v2);
+                            stack[sp] = null;
+                            pc += 2;
+                        }
+                        case CALL -> {
+                            int count = code[pc + 2];
+                            List<Value> params = new ArrayList<>(count);
+                            for (int i = sp - count; i < sp; i++) {
+                                params.add(stack[i]);
+                                stack[i] = null;
+                            }
+                            sp -= count;
+                            stack[sp++] = ((IFunction) constants[code[pc + 1]]).eval(params);
+                            pc += 3;
+                        }
+                        case LAZY_OPERATOR -> {
+                            LazyOperatorCall call = (LazyOperatorCall) constants[code[pc + 1]];
+                            stack[sp++] = call.operator.evalValue(c, type(code[pc + 2], type), call.expression, call.token, call.left, call.right);
+                            pc += 3;
+                        }
+                        case LAZY_CALL -> {
+                            LazyFunctionCall call = (LazyFunctionCall) constants[code[pc + 1]];
+                            stack[sp++] = call.function.evalValue(c, type(code[pc + 2], type), call.expression, call.token, call.params);
+                            pc += 3;
+                        }
+                        case USER_CALL -> {
+                            UserFunctionCall call = (UserFunctionCall) constants[code[pc + 1]];
+                            stack[sp++] = call.node.call(c, type(code[pc + 2], type), call.args);
+                            pc += 3;
+                        }
+                        case NODE -> {
+                            stack[sp++] = ((LazyValue) constants[code[pc + 1]]).evalValue(c, type(code[pc + 2], type));
+                            pc += 3;
+                        }
+                        case JUMP -> pc = code[pc + 1];
+                        case JUMP_IF_FALSE -> {
+                            Value condition = stack[--sp];
+                            stack[sp] = null;
+                            pc = condition.getBoolean() ? pc + 2 : code[pc + 1];
+                        }
+                        case JUMP_IF_TRUE -> {
+                            Value condition = stack[--sp];
+                            stack[sp] = null;
+                            pc = condition.getBoolean() ? code[pc + 1] : pc + 2;
+                        }
+                        case ADD_ASSIGN -> {
+                            Value v2 = stack[--sp];
+                            Value v1 = stack[sp - 1];
+                            stack[sp] = null;
+                            stack[sp - 1] = addAssign(c, (Nodes.OperatorNode) constants[code[pc + 1]], v1, v2);
+                            pc += 2;
+                        }
+                        case LOOP_START -> {
+                            int loop = code[pc + 1];
+                            limits[loop] = NumericValue.asNumber(stack[--sp]).getLong();
+                            stack[sp] = null;
+                            counters[loop] = 0;
+                            savedUnderscores[loop] = c.getVariable("_");
+                            lastValues[loop] = Value.NULL;
+                            pc += 2;
+                        }
+                        case LOOP_TEST -> {
+                            int loop = code[pc + 1];
+                            if (counters[loop] < limits[loop]) {
+                                long whyYouAsk = counters[loop];
+                                c.setVariable("_", (cc, tt) -> new NumericValue(whyYouAsk).bindTo("_"));
+                                pc += 3;
+                            } else {
+                                pc = code[pc + 2];
+                            }
+                        }
+                        case LOOP_BODY -> {
+                            lastValues[code[pc + 1]] = stack[--sp];
+                            stack[sp] = null;
+                            pc += 2;
+                        }
+                        case LOOP_NEXT -> {
+                            counters[code[pc + 1]]++;
+                            pc = code[pc + 2];
+                        }
+                        case LOOP_END -> {
+                            int loop = code[pc + 1];
+                            c.setVariable("_", savedUnderscores[loop]);
+                            stack[sp++] = lastValues[loop];
+                            savedUnderscores[loop] = null;
+                            lastValues[loop] = null;
+                            pc += 2;
+                        }
+                        case RETURN -> {
+                            return stack[sp - 1];
+                        }
+                        default -> throw new IllegalStateException("Unknown instruction " + code[pc] + " at " + pc);
+                    }
+                }
+            } catch (RuntimeException exc) {
+                for (Handler handler : handlers) { // innermost first
+                    if (at >= handler.start && at < handler.end) {
+                        throw FunctionCompiler.rethrow(exc, handler.expression, handler.token);
+                    }
+                }
+                throw exc;
+            }
+        }
+
+        private static Integer type(int operand, Integer type) {
+            return operand < 0 ? type : Integer.valueOf(operand);
+        }
+
+        /**
+         * Same as the {@code +=} operator, lists and unpacking are left to the operator itself
+         */
+        private static Value addAssign(Context c, Nodes.OperatorNode op, Value v1, Value v2) {
+            if (v1 instanceof ListValue) {
+                return op.operator.evalValue(c, Context.NONE, op.expression, op.token, (cc, tt) -> v1, (cc, tt) -> v2);
+            }
+            v1.assertAssignable();
+            String varname = v1.getVariable();
+            Value result = v1.add(v2).bindTo(varname);
+            c.setVariable(varname, (cc, tt) -> result);
+            return result;
+        }
+    }
+
+    private static final class ChunkBuilder {
+        private int[] code = new int[32];
+        private int size = 0;
+        private final List<Object> constants = new ArrayList<>();
+        private final Map<Object, Integer> constantIndices = new IdentityHashMap<>();
+        private final List<Handler> handlers = new ArrayList<>();
+        private int depth = 0;
+        private int maxDepth = 0;
+        private int loops = 0;
+
+        private Chunk build(FrameLayout layout) {
+            return new Chunk(Arrays.copyOf(code, size), constants.toArray(), handlers.toArray(new Handler[0]), maxDepth, loops, layout);
+        }
+
+        private int constant(Object o) {
+            return constantIndices.computeIfAbsent(o, x -> {
+                constants.add(x);
+                return constants.size() - 1;
+            });
+        }
+
+        /**
+         * Adds an instruction
+         *
+         * @return Where it is, to fill in a jump target later
+         */
+        private int emit(int instruction, int stackChange, int... operands) {
+            if (size + operands.length + 1 > code.length)
+                code = Arrays.copyOf(code, Math.max(code.length * 2, size + operands.length + 1));
+            int at = size;
+            code[size++] = instruction;
+            for (int operand : operands)
+                code[size++] = operand;
+            depth += stackChange;
+            maxDepth = Math.max(maxDepth, depth);
+            return at;
+        }
+
+        private void handle(int start, Expression expression, Tokenizer.Token token) {
+            handlers.add(new Handler(start, size, expression, token));
+        }
+
+        private LazyValue lazy(LazyValue node) {
+            if (node == null || node instanceof Nodes.ConstantNode || node instanceof Nodes.VariableNode)
+                return node;
+            return VirtualMachine.compile(node);
+        }
+
+        /**
+         * Adds instructions leaving the value of the node on the stack
+         *
+         * @param type The type to evaluate it with, or -1 for the one the chunk is evaluated with
+         */
+        private void compile(LazyValue node, int type) {
+            if (node instanceof Nodes.ConstantNode constant) {
+                emit(CONST, 1, constant(constant.value));
+            } else if (node instanceof Nodes.VariableNode) {
+                emit(LOAD, 1, constant(node));
+            } else if (node instanceof Nodes.ScopeNode scope) {
+                emit(ENTER, 0, constant(scope.layout));
+                compile(scope.body, type);
+            } else if (node instanceof Nodes.ArithmeticNode arithmetic) {
+                compile(arithmetic.left, Context.NONE);
+                compile(arithmetic.right, Context.NONE);
+                emit(ARITHMETIC, -1, constant(arithmetic));
+            } else if (node instanceof Nodes.OperatorNode op) {
+                compileOperator(op, type);
+            } else if (node instanceof Nodes.CallNode call) {
+                List<LazyValue> args = new ArrayList<>(call.args.size());
+                for (LazyValue arg : call.args)
+                    args.add(lazy(arg));
+                emit(USER_CALL, 1, constant(new UserFunctionCall(call, args)), type);
+            } else if (node instanceof Nodes.FunctionNode fn) {
+                compileFunction(fn, type);
+            } else {
+                emit(NODE, 1, constant(node), type);
+            }
+        }
+
+        private void compileOperator(Nodes.OperatorNode op, int type) {
+            boolean builtIn = op.operator == Expression.getBuiltInOperator(op.token.surface);
+            if (builtIn && op.right != null && op.token.surface.equals(";")) {
+                int start = size;
+                compile(op.left, Context.VOID);
+                emit(POP, -1);
+                handle(start, op.expression, op.token);
+                compile(op.right, Context.NONE);
+            } else if (builtIn && op.token.surface.equals("+=") && op.left instanceof Nodes.VariableNode) {
+                int start = size;
+                compile(op.left, Context.NONE);
+                compile(op.right, Context.NONE);
+                emit(ADD_ASSIGN, -1, constant(op));
+                handle(start, op.expression, op.token);
+            } else if (op.right == null && op.operator instanceof AbstractUnaryOperator) {
+                compile(op.left, Context.NONE);
+                emit(UNARY, 0, constant(op.operator));
+            } else if (op.right != null && op.operator instanceof AbstractOperator) {
+                compile(op.left, Context.NONE);
+                compile(op.right, Context.NONE);
+                emit(BINARY, -1, constant(op.operator));
+            } else {
+                LazyOperatorCall call = new LazyOperatorCall(op.operator, op.expression, op.token, lazy(op.left), lazy(op.right));
+                emit(LAZY_OPERATOR, 1, constant(call), type);
+            }
+        }
+
+        private void compileFunction(Nodes.FunctionNode fn, int type) {
+            String name = fn.token.surface.toLowerCase(Locale.ROOT);
+            boolean builtIn = fn.function == Expression.getBuiltInFunction(name);
+            if (builtIn && name.equals("if") && fn.params.size() >= 2) {
+                compileIf(fn);
+            } else if (builtIn && name.equals("loop") && (fn.params.size() == 2 || fn.params.size() == 3)) {
+                compileLoop(fn);
+            } else if (fn.function instanceof AbstractFunction) {
+                for (LazyValue param : fn.params)
+                    compile(param, Context.NONE);
+                emit(CALL, 1 - fn.params.size(), constant(fn.function), fn.params.size());
+            } else {
+                List<LazyValue> params = new ArrayList<>(fn.params.size());
+                for (LazyValue param : fn.params)
+                    params.add(lazy(param));
+                emit(LAZY_CALL, 1, constant(new LazyFunctionCall(fn.function, fn.expression, fn.token, params)), type);
+            }
+        }
+
+        /**
+         * if(cond1, expr1, cond2, expr2, ..., ?default)
+         */
+        private void compileIf(Nodes.FunctionNode fn) {
+            List<LazyValue> params = fn.params;
+            int start = size;
+            int base = depth;
+            List<Integer> exits = new ArrayList<>();
+            for (int i = 0; i < params.size() - 1; i += 2) {
+                compile(params.get(i), Context.BOOLEAN);
+                int skip = emit(JUMP_IF_FALSE, -1, -1);
+                compile(params.get(i + 1), Context.NONE);
+                exits.add(emit(JUMP, 0, -1));
+                depth = base;
+                code[skip + 1] = size;
+            }
+            if (params.size() % 2 == 1) {
+                compile(params.get(params.size() - 1), Context.NONE);
+            } else {
+                emit(CONST, 1, constant(Value.ZERO));
+            }
+            for (int exit : exits)
+                code[exit + 1] = size;
+            handle(start, fn.expression, fn.token);
+        }
+
+        /**
+         * loop(n, expr, ?exit_condition)
+         */
+        private void compileLoop(Nodes.FunctionNode fn) {
+            int loop = loops++;
+            int start = size;
+            compile(fn.params.get(0), Context.NONE);
+            emit(LOOP_START, -1, loop);
+            int test = emit(LOOP_TEST, 0, loop, -1);
+            compile(fn.params.get(1), Context.NONE);
+            emit(LOOP_BODY, -1, loop);
+            int exitEarly = -1;
+            if (fn.params.size() == 3) {
+                compile(fn.params.get(2), Context.NONE);
+                exitEarly = emit(JUMP_IF_TRUE, -1, -1);
+            }
+            emit(LOOP_NEXT, 0, loop, test);
+            code[test + 2] = size;
+            if (exitEarly >= 0)
+                code[exitEarly + 1] = size;
+            emit(LOOP_END, 1, loop);
+            handle(start, fn.expression, fn.token);
+        }
+    }
+}
@@ -34,6 +34,10 @@ public class ExpressionException extends RuntimeException {
         super(message);
     }
 
+    public ExpressionException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
     public ExpressionException(Expression e, Tokenizer.Token t, String message) {
         super(makeMessage(e, t, message));
     }
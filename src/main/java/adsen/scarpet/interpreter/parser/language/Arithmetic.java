@@ -3,10 +3,16 @@ package adsen.scarpet.interpreter.parser.language;
 import adsen.scarpet.interpreter.parser.Context;
 import adsen.scarpet.interpreter.parser.Expression;
 import adsen.scarpet.interpreter.parser.exception.InternalExpressionException;
+import adsen.scarpet.interpreter.parser.util.Matrix;
+import adsen.scarpet.interpreter.parser.util.SparseMatrix;
 import adsen.scarpet.interpreter.parser.value.ListValue;
+import adsen.scarpet.interpreter.parser.value.MatrixValue;
 import adsen.scarpet.interpreter.parser.value.NumericValue;
 import adsen.scarpet.interpreter.parser.value.Value;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * <h1>Arithmetic operations</h1>
  * <div style="padding-left: 20px; border-radius: 5px 45px; border:1px solid grey;">
@@ -56,6 +62,22 @@ import adsen.scarpet.interpreter.parser.value.Value;
  * <h3><code>relu(n)</code></h3>
  * <p>Linear rectifier of <code>n</code>. 0 below 0, n above. Why not. <code>max(0,n)</code>
  * with less moral repercussions.</p>
+ * <h3><code>solve(a, b)</code></h3>
+ * <p>Finds <code>x</code> for which <code>a * x = b</code>. <code>a</code> is a matrix or a list of its rows, and
+ * <code>b</code> a list of numbers, a list of rows or a matrix, which is also what the answer comes as. Square
+ * matrices get solved exactly, ones with more rows than columns give the closest fit there is, in the least squares
+ * sense. Solving with the same matrix value again reuses the work done the first time.</p>
+ * <pre>
+ * solve(l(l(2, 1), l(1, 3)), l(3, 5))  =&gt; [0.8, 1.4]
+ * </pre>
+ * <h3><code>sparse_matrix(rows, columns), sparse_matrix(matrix)</code></h3>
+ * <p>Matrix which only keeps the values that aren't 0, either all zeros of the given size, or with the values of a
+ * matrix or a list of its rows. Takes a lot less memory than a regular matrix for ones that are nearly all zeros,
+ * like graphs. Values get set with <code>put(m, l(x, y), value)</code> and read with <code>get</code> as usual,
+ * and operations with other sparse matrices keep them sparse.</p>
+ * <pre>
+ * m = sparse_matrix(1000, 1000); put(m, l(3, 5), 2); get(m * m, l(3, 5))  =&gt; 0
+ * </pre>
  * <h2>Trigonometric / Geometric Functions</h2>
  * <h3><code>sin(x)</code></h3>
  * <h3><code>cos(x)</code></h3>
@@ -91,48 +113,54 @@ public class Arithmetic {
         {
             long number = NumericValue.asNumber(v).getLong();
             long factorial = 1;
-            for (int i = 1; i <= number; i++) {
-                factorial = factorial * i;
+            for (long i = 2; i <= number; i++) {
+                if (factorial > Long.MAX_VALUE / i) { // too big for a long, carry on with doubles
+                    double big = factorial;
+                    for (; i <= number && !Double.isInfinite(big); i++)
+                        big *= i;
+                    return new NumericValue(big);
+                }
+                factorial *= i;
             }
             return new NumericValue(factorial);
         });
-        expression.addMathematicalUnaryFunction("sin", (d) -> Math.sin(Math.toRadians(d)));
-        expression.addMathematicalUnaryFunction("cos", (d) -> Math.cos(Math.toRadians(d)));
-        expression.addMathematicalUnaryFunction("tan", (d) -> Math.tan(Math.toRadians(d)));
-        expression.addMathematicalUnaryFunction("asin", (d) -> Math.toDegrees(Math.asin(d)));
-        expression.addMathematicalUnaryFunction("acos", (d) -> Math.toDegrees(Math.acos(d)));
-        expression.addMathematicalUnaryFunction("atan", (d) -> Math.toDegrees(Math.atan(d)));
-        expression.addMathematicalBinaryFunction("atan2", (d, d2) -> Math.toDegrees(Math.atan2(d, d2)));
-        expression.addMathematicalUnaryFunction("sinh", Math::sinh);
-        expression.addMathematicalUnaryFunction("cosh", Math::cosh);
-        expression.addMathematicalUnaryFunction("tanh", Math::tanh);
-        expression.addMathematicalUnaryFunction("sec", (d) -> 1.0 / Math.cos(Math.toRadians(d))); // Formula: sec(x) = 1 / cos(x)
-        expression.addMathematicalUnaryFunction("csc", (d) -> 1.0 / Math.sin(Math.toRadians(d))); // Formula: csc(x) = 1 / sin(x)
-        expression.addMathematicalUnaryFunction("sech", (d) -> 1.0 / Math.cosh(d));                // Formula: sech(x) = 1 / cosh(x)
-        expression.addMathematicalUnaryFunction("csch", (d) -> 1.0 / Math.sinh(d));                // Formula: csch(x) = 1 / sinh(x)
-        expression.addMathematicalUnaryFunction("cot", (d) -> 1.0 / Math.tan(Math.toRadians(d))); // Formula: cot(x) = cos(x) / sin(x) = 1 / tan(x)
-        expression.addMathematicalUnaryFunction("acot", (d) -> Math.toDegrees(Math.atan(1.0 / d)));// Formula: acot(x) = atan(1/x)
-        expression.addMathematicalUnaryFunction("coth", (d) -> 1.0 / Math.tanh(d));                // Formula: coth(x) = 1 / tanh(x)
-        expression.addMathematicalUnaryFunction("asinh", (d) -> Math.log(d + (Math.sqrt(Math.pow(d, 2) + 1))));  // Formula: asinh(x) = ln(x + sqrt(x^2 + 1))
-        expression.addMathematicalUnaryFunction("acosh", (d) -> Math.log(d + (Math.sqrt(Math.pow(d, 2) - 1))));  // Formula: acosh(x) = ln(x + sqrt(x^2 - 1))
-        expression.addMathematicalUnaryFunction("atanh", (d) ->                                       // Formula: atanh(x) = 0.5*ln((1 + x)/(1 - x))
+        expression.addPureMathematicalUnaryFunction("sin", (d) -> Math.sin(Math.toRadians(d)));
+        expression.addPureMathematicalUnaryFunction("cos", (d) -> Math.cos(Math.toRadians(d)));
+        expression.addPureMathematicalUnaryFunction("tan", (d) -> Math.tan(Math.toRadians(d)));
+        expression.addPureMathematicalUnaryFunction("asin", (d) -> Math.toDegrees(Math.asin(d)));
+        expression.addPureMathematicalUnaryFunction("acos", (d) -> Math.toDegrees(Math.acos(d)));
+        expression.addPureMathematicalUnaryFunction("atan", (d) -> Math.toDegrees(Math.atan(d)));
+        expression.addPureMathematicalBinaryFunction("atan2", (d, d2) -> Math.toDegrees(Math.atan2(d, d2)));
+        expression.addPureMathematicalUnaryFunction("sinh", Math::sinh);
+        expression.addPureMathematicalUnaryFunction("cosh", Math::cosh);
+        expression.addPureMathematicalUnaryFunction("tanh", Math::tanh);
+        expression.addPureMathematicalUnaryFunction("sec", (d) -> 1.0 / Math.cos(Math.toRadians(d))); // Formula: sec(x) = 1 / cos(x)
+        expression.addPureMathematicalUnaryFunction("csc", (d) -> 1.0 / Math.sin(Math.toRadians(d))); // Formula: csc(x) = 1 / sin(x)
+        expression.addPureMathematicalUnaryFunction("sech", (d) -> 1.0 / Math.cosh(d));                // Formula: sech(x) = 1 / cosh(x)
+        expression.addPureMathematicalUnaryFunction("csch", (d) -> 1.0 / Math.sinh(d));                // Formula: csch(x) = 1 / sinh(x)
+        expression.addPureMathematicalUnaryFunction("cot", (d) -> 1.0 / Math.tan(Math.toRadians(d))); // Formula: cot(x) = cos(x) / sin(x) = 1 / tan(x)
+        expression.addPureMathematicalUnaryFunction("acot", (d) -> Math.toDegrees(Math.atan(1.0 / d)));// Formula: acot(x) = atan(1/x)
+        expression.addPureMathematicalUnaryFunction("coth", (d) -> 1.0 / Math.tanh(d));                // Formula: coth(x) = 1 / tanh(x)
+        expression.addPureMathematicalUnaryFunction("asinh", (d) -> Math.log(d + (Math.sqrt(Math.pow(d, 2) + 1))));  // Formula: asinh(x) = ln(x + sqrt(x^2 + 1))
+        expression.addPureMathematicalUnaryFunction("acosh", (d) -> Math.log(d + (Math.sqrt(Math.pow(d, 2) - 1))));  // Formula: acosh(x) = ln(x + sqrt(x^2 - 1))
+        expression.addPureMathematicalUnaryFunction("atanh", (d) ->                                       // Formula: atanh(x) = 0.5*ln((1 + x)/(1 - x))
         {
             if (Math.abs(d) > 1 || Math.abs(d) == 1)
                 throw new InternalExpressionException("Number must be |x| < 1");
             return 0.5 * Math.log((1 + d) / (1 - d));
         });
-        expression.addMathematicalUnaryFunction("rad", Math::toRadians);
-        expression.addMathematicalUnaryFunction("deg", Math::toDegrees);
-        expression.addMathematicalUnaryFunction("ln", Math::log);
-        expression.addMathematicalUnaryFunction("ln1p", Math::log1p);
-        expression.addMathematicalUnaryFunction("log10", Math::log10);
-        expression.addMathematicalUnaryFunction("log", a -> Math.log(a) / Math.log(2));
-        expression.addMathematicalUnaryFunction("log1p", x -> Math.log1p(x) / Math.log(2));
-        expression.addMathematicalUnaryFunction("sqrt", Math::sqrt);
-        expression.addMathematicalUnaryFunction("abs", Math::abs);
-        expression.addMathematicalUnaryFunction("round", (d) -> (double) Math.round(d));
-        expression.addMathematicalUnaryFunction("floor", Math::floor);
-        expression.addMathematicalUnaryFunction("ceil", Math::ceil);
+        expression.addPureMathematicalUnaryFunction("rad", Math::toRadians);
+        expression.addPureMathematicalUnaryFunction("deg", Math::toDegrees);
+        expression.addPureMathematicalUnaryFunction("ln", Math::log);
+        expression.addPureMathematicalUnaryFunction("ln1p", Math::log1p);
+        expression.addPureMathematicalUnaryFunction("log10", Math::log10);
+        expression.addPureMathematicalUnaryFunction("log", a -> Math.log(a) / Math.log(2));
+        expression.addPureMathematicalUnaryFunction("log1p", x -> Math.log1p(x) / Math.log(2));
+        expression.addPureMathematicalUnaryFunction("sqrt", Math::sqrt);
+        expression.addPureMathematicalUnaryFunction("abs", Math::abs);
+        expression.addPureMathematicalUnaryFunction("round", (d) -> (double) Math.round(d));
+        expression.addPureMathematicalUnaryFunction("floor", Math::floor);
+        expression.addPureMathematicalUnaryFunction("ceil", Math::ceil);
 
         expression.addLazyFunction("mandelbrot", 3, (c, t, lv) -> {
             double a0 = NumericValue.asNumber(lv.get(0).evalValue(c)).getDouble();
@@ -178,5 +206,56 @@ public class Arithmetic {
         });
 
         expression.addUnaryFunction("relu", (v) -> v.compareTo(Value.ZERO) < 0 ? Value.ZERO : v);
+
+        expression.addBinaryFunction("solve", (a, b) ->
+        {
+            MatrixValue system;
+            if (a instanceof MatrixValue)
+                system = (MatrixValue) a;
+            else if (a instanceof ListValue && ((ListValue) a).length() > 0)
+                system = new MatrixValue((ListValue) a);
+            else
+                throw new InternalExpressionException("solve() requires a matrix or a list of its rows as the first parameter");
+            if (b instanceof MatrixValue)
+                return new MatrixValue(system.solve(((MatrixValue) b).getMatrix()));
+            if (b instanceof ListValue && ((ListValue) b).length() > 0) {
+                ListValue list = (ListValue) b;
+                if (list.canBeVector())
+                    return ListValue.wrapNumbers(rowsOf(system.solve(list.toVector().getMatrix()).transpose()).get(0));
+                List<Value> rows = new ArrayList<>();
+                for (List<Value> row : rowsOf(system.solve(new MatrixValue(list).getMatrix())))
+                    rows.add(ListValue.wrapNumbers(row));
+                return ListValue.wrap(rows);
+            }
+            throw new InternalExpressionException("solve() requires a vector, a list of rows or a matrix as the second parameter");
+        });
+
+        expression.addFunction("sparse_matrix", (lv) ->
+        {
+            if (lv.size() == 2)
+                return new MatrixValue(new SparseMatrix(
+                        (int) NumericValue.asNumber(lv.get(1)).getLong(),
+                        (int) NumericValue.asNumber(lv.get(0)).getLong()));
+            if (lv.size() == 1 && lv.get(0) instanceof MatrixValue)
+                return new MatrixValue(SparseMatrix.of(((MatrixValue) lv.get(0)).getMatrix()));
+            if (lv.size() == 1 && lv.get(0) instanceof ListValue && ((ListValue) lv.get(0)).length() > 0)
+                return new MatrixValue(SparseMatrix.of(new MatrixValue((ListValue) lv.get(0)).getMatrix()));
+            throw new InternalExpressionException("sparse_matrix() requires a number of rows and columns, or a matrix");
+        });
+    }
+
+    /**
+     * Numbers of the matrix, one list for each row
+     */
+    private static List<List<Value>> rowsOf(Matrix matrix) {
+        List<List<Value>> rows = new ArrayList<>();
+        double[] values = matrix.values();
+        for (int n = 0; n < matrix.N; n++) {
+            List<Value> row = new ArrayList<>();
+            for (int m = 0; m < matrix.M; m++)
+                row.add(new NumericValue(values[n * matrix.M + m]));
+            rows.add(row);
+        }
+        return rows;
     }
 }
@@ -132,14 +132,14 @@ public class FunctionsAndControlFlow {
             //lv.remove(lv.size()-1); // ain't gonna cut it // maybe it will because of the eager eval changes
             if (t != Context.SIGNATURE) // just call the function
             {
-                if (!c.host.globalFunctions.containsKey(name)) {
+                if (!c.host.getGlobalFunctions().containsKey(name)) {
                     throw new InternalExpressionException("Function " + name + " is not defined yet");
                 }
                 List<LazyValue> lvargs = new ArrayList<>(lv.size() - 1);
                 for (int i = 0; i < lv.size() - 1; i++) {
                     lvargs.add(lv.get(i));
                 }
-                UserDefinedFunction acf = c.host.globalFunctions.get(name);
+                UserDefinedFunction acf = c.host.getGlobalFunctions().get(name);
                 Value retval = acf.lazyEval(c, t, acf.expression, acf.token, lvargs).evalValue(c);
                 return (cc, tt) -> retval; ///!!!! dono might need to store expr and token in statics? (e? t?)
             }
@@ -26,7 +26,7 @@ public class LoopsAndHigherOrderFunctions {
     public static void apply(Expression expression) {
         expression.addFunction("l", lv -> {
             if (lv.size() == 1 && lv.get(0) instanceof LazyListValue)
-                return ListValue.wrap(((LazyListValue) lv.get(0)).unroll());
+                return ListValue.wrapNumbers(((LazyListValue) lv.get(0)).unroll());
             return new ListValue.ListConstructorValue(lv);
         });
 
@@ -55,7 +55,12 @@ public class LoopsAndHigherOrderFunctions {
             } else {
                 toJoin = lv.subList(1, lv.size());
             }
-            return new StringValue(toJoin.stream().map(Value::getString).collect(Collectors.joining(delimiter)));
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < toJoin.size(); i++) {
+                if (i > 0) sb.append(delimiter);
+                toJoin.get(i).appendTo(sb);
+            }
+            return new StringValue(sb.toString());
         });
 
         expression.addBinaryFunction("split", (d, v) -> {
@@ -237,19 +242,20 @@ public class LoopsAndHigherOrderFunctions {
             for (int i = 0; iterator.hasNext(); i++) {
                 Value next = iterator.next();
                 String var = next.boundVariable;
-                next.bindTo("_");
+                Value bound = next.bindTo("_");
                 int doYouReally = i;
-                c.setVariable("_", (cc, tt) -> next);
+                c.setVariable("_", (cc, tt) -> bound);
                 c.setVariable("_i", (cc, tt) -> new NumericValue(doYouReally).bindTo("_i"));
                 result.add(expr.evalValue(c));
                 if (cond != null && cond.evalValue(c).getBoolean()) {
-                    next.boundVariable = var;
+                    unbind(next, bound, var);
                     break;
                 }
-                next.boundVariable = var;
+                unbind(next, bound, var);
             }
             ((ListValue) rval).fatality();
-            LazyValue ret = (cc, tt) -> ListValue.wrap(result);
+            ListValue mapped = ListValue.wrapNumbers(result);
+            LazyValue ret = (cc, tt) -> mapped;
             //revering scope
             c.setVariable("_", _val);
             c.setVariable("_i", _iter);
@@ -279,17 +285,17 @@ public class LoopsAndHigherOrderFunctions {
             for (int i = 0; iterator.hasNext(); i++) {
                 Value next = iterator.next();
                 String var = next.boundVariable;
-                next.bindTo("_");
+                Value bound = next.bindTo("_");
                 int seriously = i;
-                c.setVariable("_", (cc, tt) -> next);
+                c.setVariable("_", (cc, tt) -> bound);
                 c.setVariable("_i", (cc, tt) -> new NumericValue(seriously).bindTo("_i"));
                 if (expr.evalValue(c).getBoolean())
                     result.add(next);
                 if (cond != null && cond.evalValue(c).getBoolean()) {
-                    next.boundVariable = var;
+                    unbind(next, bound, var);
                     break;
                 }
-                next.boundVariable = var;
+                unbind(next, bound, var);
             }
             ((ListValue) rval).fatality();
             LazyValue ret = (cc, tt) -> ListValue.wrap(result); // might be a trap - lazy evaluation
@@ -317,16 +323,16 @@ public class LoopsAndHigherOrderFunctions {
             for (int i = 0; iterator.hasNext(); i++) {
                 Value next = iterator.next();
                 String var = next.boundVariable;
-                next.bindTo("_");
+                Value bound = next.bindTo("_");
                 int seriously = i;
-                c.setVariable("_", (cc, tt) -> next);
+                c.setVariable("_", (cc, tt) -> bound);
                 c.setVariable("_i", (cc, tt) -> new NumericValue(seriously).bindTo("_i"));
                 if (expr.evalValue(c).getBoolean()) {
                     result = next;
-                    next.boundVariable = var;
+                    unbind(next, bound, var);
                     break;
                 }
-                next.boundVariable = var;
+                unbind(next, bound, var);
             }
             //revering scope
             ((ListValue) rval).fatality();
@@ -353,16 +359,16 @@ public class LoopsAndHigherOrderFunctions {
             for (int i = 0; iterator.hasNext(); i++) {
                 Value next = iterator.next();
                 String var = next.boundVariable;
-                next.bindTo("_");
+                Value bound = next.bindTo("_");
                 int seriously = i;
-                c.setVariable("_", (cc, tt) -> next);
+                c.setVariable("_", (cc, tt) -> bound);
                 c.setVariable("_i", (cc, tt) -> new NumericValue(seriously).bindTo("_i"));
                 if (!expr.evalValue(c).getBoolean()) {
                     result = LazyValue.FALSE;
-                    next.boundVariable = var;
+                    unbind(next, bound, var);
                     break;
                 }
-                next.boundVariable = var;
+                unbind(next, bound, var);
             }
             //revering scope
             ((ListValue) rval).fatality();
@@ -394,17 +400,17 @@ public class LoopsAndHigherOrderFunctions {
             for (int i = 0; iterator.hasNext(); i++) {
                 Value next = iterator.next();
                 String var = next.boundVariable;
-                next.bindTo("_");
+                Value bound = next.bindTo("_");
                 int seriously = i;
-                c.setVariable("_", (cc, tt) -> next);
+                c.setVariable("_", (cc, tt) -> bound);
                 c.setVariable("_i", (cc, tt) -> new NumericValue(seriously).bindTo("_i"));
                 if (expr.evalValue(c).getBoolean())
                     successCount++;
                 if (cond != null && cond.evalValue(c).getBoolean()) {
-                    next.boundVariable = var;
+                    unbind(next, bound, var);
                     break;
                 }
-                next.boundVariable = var;
+                unbind(next, bound, var);
             }
             //revering scope
             ((ListValue) rval).fatality();
@@ -441,12 +447,12 @@ public class LoopsAndHigherOrderFunctions {
             while (iterator.hasNext()) {
                 Value next = iterator.next();
                 String var = next.boundVariable;
-                next.bindTo("_");
+                Value bound = next.bindTo("_");
                 Value promiseWontChangeYou = acc;
                 c.setVariable("_a", (cc, tt) -> promiseWontChangeYou.bindTo("_a"));
-                c.setVariable("_", (cc, tt) -> next);
+                c.setVariable("_", (cc, tt) -> bound);
                 acc = expr.evalValue(c);
-                next.boundVariable = var;
+                unbind(next, bound, var);
             }
             //reverting scope
             ((ListValue) rval).fatality();
@@ -457,4 +463,13 @@ public class LoopsAndHigherOrderFunctions {
             return (cc, tt) -> hopeItsEnoughPromise;
         });
     }
+
+    /**
+     * Gives an item back the variable it was bound to before it was bound to {@code _}. {@link Value#share() Shared}
+     * items, like the small {@link NumericValue numbers}, were bound through a copy, so they were never changed.
+     */
+    private static void unbind(Value item, Value bound, String var) {
+        if (bound == item)
+            item.boundVariable = var;
+    }
 }
@@ -33,14 +33,14 @@ public class Operators {
     }};
 
     public static void apply(Expression expression) {
-        expression.addBinaryOperator("+", precedence.get("addition+-"), true, Value::add);
-        expression.addBinaryOperator("-", precedence.get("addition+-"), true, Value::subtract);
-        expression.addBinaryOperator("*", precedence.get("multiplication*/%"), true, Value::multiply);
-        expression.addBinaryOperator("/", precedence.get("multiplication*/%"), true, Value::divide);
-        expression.addBinaryOperator("%", precedence.get("multiplication*/%"), true, (v1, v2) ->
-                new NumericValue(NumericValue.asNumber(v1).getDouble() % NumericValue.asNumber(v2).getDouble()));
-        expression.addBinaryOperator("^", precedence.get("exponent^"), false, (v1, v2) ->
-                new NumericValue(Math.pow(NumericValue.asNumber(v1).getDouble(), NumericValue.asNumber(v2).getDouble())));
+        expression.addPureBinaryOperator("+", precedence.get("addition+-"), true, Value::add);
+        expression.addPureBinaryOperator("-", precedence.get("addition+-"), true, Value::subtract);
+        expression.addPureBinaryOperator("*", precedence.get("multiplication*/%"), true, Value::multiply);
+        expression.addPureBinaryOperator("/", precedence.get("multiplication*/%"), true, Value::divide);
+        expression.addPureBinaryOperator("%", precedence.get("multiplication*/%"), true, (v1, v2) ->
+                NumericValue.asNumber(v1).modulo(NumericValue.asNumber(v2)));
+        expression.addPureBinaryOperator("^", precedence.get("exponent^"), false, (v1, v2) ->
+                NumericValue.of(Math.pow(NumericValue.asNumber(v1).getDouble(), NumericValue.asNumber(v2).getDouble())));
 
         expression.addLazyBinaryOperator("&&", precedence.get("and&&"), false, (c, t, lv1, lv2) ->
         {
@@ -58,19 +58,20 @@ public class Operators {
             return v2.getBoolean() ? ((cc, tt) -> v2) : LazyValue.FALSE;
         });
 
+        // not pure, as with strings it compiles its right hand side as a regex
         expression.addBinaryOperator("~", precedence.get("compare>=><=<"), true, Value::in);
 
-        expression.addBinaryOperator(">", precedence.get("compare>=><=<"), false, (v1, v2) ->
+        expression.addPureBinaryOperator(">", precedence.get("compare>=><=<"), false, (v1, v2) ->
                 v1.compareTo(v2) > 0 ? Value.TRUE : Value.FALSE);
-        expression.addBinaryOperator(">=", precedence.get("compare>=><=<"), false, (v1, v2) ->
+        expression.addPureBinaryOperator(">=", precedence.get("compare>=><=<"), false, (v1, v2) ->
                 v1.compareTo(v2) >= 0 ? Value.TRUE : Value.FALSE);
-        expression.addBinaryOperator("<", precedence.get("compare>=><=<"), false, (v1, v2) ->
+        expression.addPureBinaryOperator("<", precedence.get("compare>=><=<"), false, (v1, v2) ->
                 v1.compareTo(v2) < 0 ? Value.TRUE : Value.FALSE);
-        expression.addBinaryOperator("<=", precedence.get("compare>=><=<"), false, (v1, v2) ->
+        expression.addPureBinaryOperator("<=", precedence.get("compare>=><=<"), false, (v1, v2) ->
                 v1.compareTo(v2) <= 0 ? Value.TRUE : Value.FALSE);
-        expression.addBinaryOperator("==", precedence.get("equal==!="), false, (v1, v2) ->
+        expression.addPureBinaryOperator("==", precedence.get("equal==!="), false, (v1, v2) ->
                 v1.equals(v2) ? Value.TRUE : Value.FALSE);
-        expression.addBinaryOperator("!=", precedence.get("equal==!="), false, (v1, v2) ->
+        expression.addPureBinaryOperator("!=", precedence.get("equal==!="), false, (v1, v2) ->
                 v1.equals(v2) ? Value.FALSE : Value.TRUE);
 
         expression.addLazyBinaryOperator("=", precedence.get("assign=<>"), false, (c, t, lv1, lv2) ->
@@ -170,9 +171,9 @@ public class Operators {
             return (cc, tt) -> lval;
         });
 
-        expression.addUnaryOperator("-", false, (v) -> new NumericValue(-NumericValue.asNumber(v).getDouble()));
+        expression.addPureUnaryOperator("-", false, (v) -> NumericValue.asNumber(v).negate());
 
-        expression.addUnaryOperator("+", false, (v) -> new NumericValue(NumericValue.asNumber(v).getDouble()));
+        expression.addPureUnaryOperator("+", false, (v) -> NumericValue.of(NumericValue.asNumber(v).getDouble()));
 
         expression.addLazyUnaryOperator("!", precedence.get("unary+-!"), false, (c, t, lv) -> lv.evalValue(c, Context.BOOLEAN).getBoolean() ? (cc, tt) -> Value.FALSE : (cc, tt) -> Value.TRUE); // might need context boolean
 
@@ -187,7 +188,7 @@ public class Operators {
         {
             Value v1 = lv1.evalValue(c, Context.SIGNATURE);
             if (v1 instanceof FunctionSignatureValue sign) {
-                expression.addContextFunction(c, sign.getName(), e, t, sign.getArgs(), sign.getGlobals(), lv2);
+                e.addContextFunction(c, sign.getName(), e, t, sign.getArgs(), sign.getGlobals(), lv2);
             } else {
                 v1.assertAssignable();
                 c.setVariable(v1.getVariable(), lv2);
@@ -106,7 +106,7 @@ public class SystemFunctions {
             }
         });
 
-        expression.addUnaryFunction("length", v -> new NumericValue(v.length()));
+        expression.addUnaryFunction("length", v -> NumericValue.of(v.length()));
         expression.addLazyFunction("rand", 1, (c, t, lv) -> {
             Value argument = lv.get(0).evalValue(c);
             if (argument instanceof ListValue) {
@@ -153,15 +153,15 @@ public class SystemFunctions {
                 throw new InternalExpressionException("Cannot replace local built-in variables, i.e. those that start with '_'");
             if (varname.endsWith("*")) {
                 varname = varname.replaceAll("\\*+$", "");
-                for (String key : c.host.globalFunctions.keySet()) {
-                    if (key.startsWith(varname)) c.host.globalFunctions.remove(key);
+                for (String key : new ArrayList<>(c.host.getGlobalFunctions().keySet())) {
+                    if (key.startsWith(varname)) c.host.undefineFunction(key);
                 }
                 for (String key : c.host.globalVariables.keySet()) {
                     if (key.startsWith(varname)) c.host.globalVariables.remove(key);
                 }
                 c.clearAll(varname);
             } else {
-                c.host.globalFunctions.remove(varname);
+                c.host.undefineFunction(varname);
                 c.delVariable(varname);
             }
             return (cc, tt) -> Value.NULL;
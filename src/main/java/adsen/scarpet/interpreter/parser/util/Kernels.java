@@ -0,0 +1,108 @@
+package adsen.scarpet.interpreter.parser.util;
+
+/**
+ * Loops over arrays of doubles, which numeric lists and matrices do their arithmetic with. These are the plain Java
+ * ones, there are also ones using the Vector API in {@code VectorKernels}, which get used instead once turned on with
+ * {@link Kernels#setVectorized(boolean)}, or from the start with {@code -Dscarpet.vectorKernels=true}. They are
+ * compiled apart from the rest, in the {@code vector} source set, as they need the incubating
+ * {@code jdk.incubator.vector} module.
+ * <p>
+ * Both give exactly the same results, except for {@link Kernels#dot}, which the vectorized version adds up in a
+ * different order, so its result can be off by a few units in the last place.
+ */
+public class Kernels {
+    /**
+     * System property which turns the vectorized kernels on when set to {@code true}
+     */
+    public static final String VECTORIZED_PROPERTY = "scarpet.vectorKernels";
+    private static final Kernels SCALAR = new Kernels();
+    private static volatile Kernels current = SCALAR;
+
+    static {
+        if (Boolean.getBoolean(VECTORIZED_PROPERTY))
+            setVectorized(true);
+    }
+
+    Kernels() {
+    }
+
+    /**
+     * The kernels in use
+     */
+    public static Kernels get() {
+        return current;
+    }
+
+    public static boolean isVectorized() {
+        return current != SCALAR;
+    }
+
+    /**
+     * Turns the kernels using the Vector API on or off. They need the {@code jdk.incubator.vector} module, which has
+     * to be added to the JVM with {@code --add-modules jdk.incubator.vector}, otherwise this stays with the plain ones.
+     *
+     * @return Whether the vectorized kernels are in use now
+     */
+    public static boolean setVectorized(boolean vectorized) {
+        if (!vectorized) {
+            current = SCALAR;
+            return false;
+        }
+        try {
+            current = (Kernels) Class.forName("adsen.scarpet.interpreter.parser.util.VectorKernels")
+                    .getDeclaredConstructor().newInstance();
+            return true;
+        } catch (ReflectiveOperationException | LinkageError e) { // module isn't there
+            current = SCALAR;
+            return false;
+        }
+    }
+
+    public void add(double[] a, double[] b, double[] result, int length) {
+        for (int i = 0; i < length; i++) result[i] = a[i] + b[i];
+    }
+
+    public void subtract(double[] a, double[] b, double[] result, int length) {
+        for (int i = 0; i < length; i++) result[i] = a[i] - b[i];
+    }
+
+    public void multiply(double[] a, double[] b, double[] result, int length) {
+        for (int i = 0; i < length; i++) result[i] = a[i] * b[i];
+    }
+
+    public void divide(double[] a, double[] b, double[] result, int length) {
+        for (int i = 0; i < length; i++) result[i] = a[i] / b[i];
+    }
+
+    public void add(double[] a, double b, double[] result, int length) {
+        for (int i = 0; i < length; i++) result[i] = a[i] + b;
+    }
+
+    public void subtract(double[] a, double b, double[] result, int length) {
+        for (int i = 0; i < length; i++) result[i] = a[i] - b;
+    }
+
+    public void multiply(double[] a, double b, double[] result, int length) {
+        for (int i = 0; i < length; i++) result[i] = a[i] * b;
+    }
+
+    public void divide(double[] a, double b, double[] result, int length) {
+        for (int i = 0; i < length; i++) result[i] = a[i] / b;
+    }
+
+    /**
+     * Sum of the products of the items of {@code a} and {@code b}, starting from the given offsets
+     */
+    public double dot(double[] a, int aFrom, double[] b, int bFrom, int length) {
+        double sum = 0.0D;
+        for (int i = 0; i < length; i++) sum += a[aFrom + i] * b[bFrom + i];
+        return sum;
+    }
+
+    /**
+     * Adds {@code a} times each item of {@code x} to the matching item of {@code y}, starting from the given offsets
+     */
+    public void addScaled(double a, double[] x, int xFrom, double[] y, int yFrom, int length) {
+        for (int i = 0; i < length; i++) y[yFrom + i] += a * x[xFrom + i];
+    }
+}
@@ -0,0 +1,164 @@
+package adsen.scarpet.interpreter.parser.util;
+
+/**
+ * LU decomposition of a square matrix with partial pivoting, so rows of the matrix get swapped around to make it
+ * {@code L * U}, where {@code L} has ones on its diagonal and nothing above it, and {@code U} nothing below its
+ * diagonal. Takes {@code O(n^3)} to make, after which the determinant is {@code O(n)}, and solving for each right
+ * hand side {@code O(n^2)}, so a decomposition can be kept around and used for many of them.
+ * <p>
+ * It doesn't change once made, so it needs making again if the matrix it came from does.
+ */
+public class LUDecomposition {
+    private final int size;
+    /**
+     * {@code L} below the diagonal and {@code U} on and above it, rows for rows
+     */
+    private final double[] lu;
+    /**
+     * Which row of the original matrix ended up at each row
+     */
+    private final int[] pivots;
+    private final boolean evenSwaps;
+    private final boolean singular;
+
+    public LUDecomposition(Matrix matrix) {
+        if (!matrix.isSquare()) throw new ArithmeticException("Cannot decompose a non-square matrix");
+        size = matrix.N;
+        lu = matrix.values().clone();
+        pivots = new int[size];
+        for (int n = 0; n < size; n++) pivots[n] = n;
+
+        Kernels kernels = Kernels.get();
+        boolean even = true, zeroPivot = false;
+        for (int k = 0; k < size; k++) {
+            int pivot = k;
+            for (int n = k + 1; n < size; n++) {
+                if (Math.abs(lu[n * size + k]) > Math.abs(lu[pivot * size + k])) pivot = n;
+            }
+            if (pivot != k) {
+                swapRows(lu, size, pivot, k);
+                int p = pivots[pivot];
+                pivots[pivot] = pivots[k];
+                pivots[k] = p;
+                even = !even;
+            }
+            double diagonal = lu[k * size + k];
+            if (diagonal == 0.0) { // nothing left to eliminate this column with
+                zeroPivot = true;
+                continue;
+            }
+            for (int n = k + 1; n < size; n++) {
+                double factor = lu[n * size + k] /= diagonal;
+                if (factor != 0.0)
+                    kernels.addScaled(-factor, lu, k * size + k + 1, lu, n * size + k + 1, size - k - 1);
+            }
+        }
+        evenSwaps = even;
+        singular = zeroPivot;
+    }
+
+    private static void swapRows(double[] values, int columns, int a, int b) {
+        for (int m = 0; m < columns; m++) {
+            double value = values[a * columns + m];
+            values[a * columns + m] = values[b * columns + m];
+            values[b * columns + m] = value;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Whether the matrix has no inverse, in which case nothing can be solved with it
+     */
+    public boolean isSingular() {
+        return singular;
+    }
+
+    public double determinant() {
+        if (singular) return 0.0;
+        double determinant = evenSwaps ? 1.0 : -1.0;
+        for (int k = 0; k < size; k++) determinant *= lu[k * size + k];
+        return determinant;
+    }
+
+    public Matrix inverse() {
+        if (singular) throw new ArithmeticException("Cannot get inverse with 0 determinant");
+        return solve(Matrix.identity(size));
+    }
+
+    /**
+     * Finds {@code X} for which {@code A * X = B}, where {@code A} is the decomposed matrix.
+     *
+     * @param b Matrix with a column for each right hand side
+     */
+    public Matrix solve(Matrix b) {
+        if (b.N != size)
+            throw new ArithmeticException("Right hand side needs " + size + " rows to solve with a " + size + "x" + size + " matrix");
+        if (singular) throw new ArithmeticException("Cannot solve with a singular matrix");
+        int columns = b.M;
+        double[] from = b.values();
+        double[] x = new double[size * columns];
+        for (int n = 0; n < size; n++) {
+            System.arraycopy(from, pivots[n] * columns, x, n * columns, columns);
+        }
+        Kernels kernels = Kernels.get();
+        for (int n = 1; n < size; n++) {
+            for (int k = 0; k < n; k++) {
+                double factor = lu[n * size + k];
+                if (factor != 0.0) kernels.addScaled(-factor, x, k * columns, x, n * columns, columns);
+            }
+        }
+        for (int n = size - 1; n >= 0; n--) {
+            for (int k = n + 1; k < size; k++) {
+                double factor = lu[n * size + k];
+                if (factor != 0.0) kernels.addScaled(-factor, x, k * columns, x, n * columns, columns);
+            }
+            double diagonal = lu[n * size + n];
+            for (int m = n * columns; m < (n + 1) * columns; m++) x[m] /= diagonal;
+        }
+        return new Matrix(columns, size, x);
+    }
+
+    /**
+     * Finds {@code X} for which {@code X * A = B}, where {@code A} is the decomposed matrix, which is what dividing
+     * {@code B} by it means. Does that by solving {@code A^T * X^T = B^T}, going through the decomposition the other
+     * way around.
+     *
+     * @param b Matrix with a row for each left hand side
+     */
+    public Matrix solveRight(Matrix b) {
+        if (b.M != size)
+            throw new ArithmeticException("Left hand side needs " + size + " columns to solve with a " + size + "x" + size + " matrix");
+        if (singular) throw new ArithmeticException("Cannot solve with a singular matrix");
+        int columns = b.N;
+        double[] x = b.transpose().values();
+        Kernels kernels = Kernels.get();
+        // U^T, which has nothing above its diagonal
+        for (int n = 0; n < size; n++) {
+            for (int k = 0; k < n; k++) {
+                double factor = lu[k * size + n];
+                if (factor != 0.0) kernels.addScaled(-factor, x, k * columns, x, n * columns, columns);
+            }
+            double diagonal = lu[n * size + n];
+            for (int m = n * columns; m < (n + 1) * columns; m++) x[m] /= diagonal;
+        }
+        // L^T, which has ones on its diagonal and nothing below it
+        for (int n = size - 2; n >= 0; n--) {
+            for (int k = n + 1; k < size; k++) {
+                double factor = lu[k * size + n];
+                if (factor != 0.0) kernels.addScaled(-factor, x, k * columns, x, n * columns, columns);
+            }
+        }
+        // undoing the row swaps, with X^T having its rows where the matching ones of A went
+        Matrix result = new Matrix(size, columns);
+        double[] values = result.values();
+        for (int n = 0; n < size; n++) {
+            for (int m = 0; m < columns; m++) {
+                values[m * size + pivots[n]] = x[n * columns + m];
+            }
+        }
+        return result;
+    }
+}
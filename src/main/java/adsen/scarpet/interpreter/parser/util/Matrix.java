@@ -1,10 +1,11 @@
 package adsen.scarpet.interpreter.parser.util;
 
-import adsen.scarpet.interpreter.parser.Fluff;
-
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class Matrix implements Collection<Double> {
     /**
@@ -15,19 +16,93 @@ public class Matrix implements Collection<Double> {
      * The width of the matrix - number for rows
      */
     public final int N;
-    private double[][] values;
+    /**
+     * Rows for rows, all in one array, so the value at (m, n) is at {@code n * M + m}
+     */
+    private double[] values;
+    /**
+     * How many times values were set, so that whatever was worked out from them can tell they changed
+     */
+    private int modifications;
+
+    /**
+     * Size of the blocks of the other matrix {@link Matrix#multiply(Matrix)} works with at a time, in rows and columns,
+     * so that they stay in the CPU's cache while every row of the output goes through them
+     */
+    private static final int BLOCK_ROWS = 128;
+    private static final int BLOCK_COLUMNS = 512;
+    /**
+     * Fewest rows of the output a task of a parallel multiplication works out, so that copying the blocks of the other
+     * matrix stays small next to the work done with them
+     */
+    private static final int MIN_TASK_ROWS = 32;
+
+    private static volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+    private static volatile long parallelThreshold = 1L << 24;
 
     public Matrix(int M, int N) {
         this.M = M;
         this.N = N;
 
-        this.values = new double[N][M];
+        this.values = new double[N * M];
     }
 
     public Matrix(double[]... values) {
-        this.values = values;
         this.M = values[0].length;
         this.N = values.length;
+        this.values = new double[N * M];
+        for (int n = 0; n < N; n++) {
+            System.arraycopy(values[n], 0, this.values, n * M, M);
+        }
+    }
+
+    /**
+     * Matrix with the given values, rows for rows, which it keeps instead of copying them
+     */
+    public Matrix(int M, int N, double[] values) {
+        if (values.length != M * N) throw new IllegalArgumentException("Matrix needs " + M * N + " values, not " + values.length);
+        this.M = M;
+        this.N = N;
+        this.values = values;
+    }
+
+    /**
+     * Gets a new value for each position of a matrix, from the old one
+     */
+    @FunctionalInterface
+    public interface CellFunction {
+        double apply(int m, int n, double value);
+    }
+
+    /**
+     * Gets told each position of a matrix and the value at it
+     */
+    @FunctionalInterface
+    public interface CellConsumer {
+        void accept(int m, int n, double value);
+    }
+
+    /**
+     * Sets the pool large multiplications get split up over, which is the common pool unless set
+     */
+    public static void setPool(ForkJoinPool forkJoinPool) {
+        pool = forkJoinPool;
+    }
+
+    public static ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Sets how many multiplications of numbers a matrix multiplication takes before it gets split up over the pool,
+     * 0 or less keeps them all on the calling thread.
+     */
+    public static void setParallelThreshold(long multiplications) {
+        parallelThreshold = multiplications;
+    }
+
+    public static long getParallelThreshold() {
+        return parallelThreshold;
     }
 
     //Matrix operations
@@ -49,8 +124,11 @@ public class Matrix implements Collection<Double> {
      * @throws ArithmeticException() if x or y is greater than M or N size of this matrix or negative
      */
     public double set(int x, int y, double newValue) {
-        double oldValue = values[y][x];
-        values[y][x] = newValue;
+        checkPosition(x, y);
+        int i = y * M + x;
+        double oldValue = values[i];
+        values[i] = newValue;
+        modifications++;
         return oldValue;
     }
 
@@ -61,7 +139,28 @@ public class Matrix implements Collection<Double> {
      * @throws ArithmeticException() if x or y is greater than M or N size of this matrix or negative
      */
     public double get(int x, int y) {
-        return values[y][x];
+        checkPosition(x, y);
+        return values[y * M + x];
+    }
+
+    private void checkPosition(int x, int y) {
+        if (x < 0 || x >= M || y < 0 || y >= N)
+            throw new ArithmeticException("Position (" + x + ", " + y + ") is outside of a " + M + "x" + N + " matrix");
+    }
+
+    /**
+     * The values of this matrix, rows for rows, which get changed along with it. Changing them directly doesn't count
+     * towards {@link Matrix#modifications()}.
+     */
+    public double[] values() {
+        return values;
+    }
+
+    /**
+     * Goes up each time values of the matrix are set
+     */
+    public int modifications() {
+        return modifications;
     }
 
     /**
@@ -72,10 +171,22 @@ public class Matrix implements Collection<Double> {
      *
      * @param iteration The function which you define to deal with the parameters.
      */
-    public void iterate(Fluff.TriFunction<Integer, Integer, Double, Double> iteration) {
-        for (int m = 0; m < M; m++) {
-            for (int n = 0; n < N; n++) {
-                set(m, n, iteration.apply(m, n, get(m, n)));
+    public void iterate(CellFunction iteration) {
+        for (int n = 0, i = 0; n < N; n++) {
+            for (int m = 0; m < M; m++, i++) {
+                values[i] = iteration.apply(m, n, values[i]);
+            }
+        }
+        modifications++;
+    }
+
+    /**
+     * Like {@link Matrix#iterate(CellFunction)}, but only reads the values
+     */
+    public void forEach(CellConsumer consumer) {
+        for (int n = 0, i = 0; n < N; n++) {
+            for (int m = 0; m < M; m++, i++) {
+                consumer.accept(m, n, values[i]);
             }
         }
     }
@@ -86,9 +197,8 @@ public class Matrix implements Collection<Double> {
     public Matrix add(Matrix other) {
         if (other.M != M || other.N != N) throw new ArithmeticException("Cannot add matrices of uneven sizes");
 
-        Matrix output = new Matrix(values);
-
-        output.iterate((m, n, v) -> v + other.get(m, n));
+        Matrix output = new Matrix(M, N);
+        Kernels.get().add(values, other.values, output.values, values.length);
         return output;
     }
 
@@ -98,9 +208,8 @@ public class Matrix implements Collection<Double> {
     public Matrix subtract(Matrix other) {
         if (other.M != M || other.N != N) throw new ArithmeticException("Cannot add matrices of uneven sizes");
 
-        Matrix output = new Matrix(values);
-
-        output.iterate((m, n, v) -> v - other.get(m, n));
+        Matrix output = new Matrix(M, N);
+        Kernels.get().subtract(values, other.values, output.values, values.length);
         return output;
     }
 
@@ -108,60 +217,116 @@ public class Matrix implements Collection<Double> {
      * Multiplies this matrix with a scalar
      */
     public Matrix multiply(double other) {
-        Matrix output = new Matrix(values);
-        output.iterate((m, n, v) -> v * other);
+        Matrix output = new Matrix(M, N);
+        Kernels.get().multiply(values, other, output.values, values.length);
         return output;
     }
 
     /**
-     * Matrix multiplication
+     * Matrix multiplication. Each row of the output gets the rows of the other matrix added to it, scaled by the
+     * matching value in this one's row, so that all loops go along rows. A column vector gets a dot product with
+     * each row instead.
+     * <p>
+     * The other matrix is gone through in blocks, each of which is copied into arrays of its own first, one per row,
+     * and the part of each output row it adds to goes in an array of its own as well. That way the kernels work on
+     * separate arrays from the start, which the JIT can vectorise, unlike parts of the same array. Blocks go down
+     * the rows in the outer loop, so each value of the output still gets the products added in the same order.
+     * <p>
+     * Multiplications above the {@link Matrix#setParallelThreshold(long) threshold} get their output rows split up
+     * between tasks on the {@link Matrix#setPool(ForkJoinPool) pool}. Each row is still worked out whole by one task,
+     * in the same order, so the answer is exactly the same as that of doing it all on one thread.
      */
     public Matrix multiply(Matrix other) {
         if (other.N != M)
             throw new ArithmeticException("When multiplying, the first matrix must have the same number of columns as the second's rows");
         Matrix output = new Matrix(other.M, N);
-        output.iterate((m, n, v) -> {
-            double ret = 0.0D;
-            for (int i = 0; i < M; i++) {
-                ret += this.get(i, n) * other.get(m, i);
-            }
-            return ret;
-        });
-
+        ForkJoinPool forkJoinPool = pool;
+        if (parallelThreshold > 0 && N >= 2 * MIN_TASK_ROWS && forkJoinPool.getParallelism() > 1
+                && (long) N * M * other.M >= parallelThreshold) {
+            int rows = Math.max(MIN_TASK_ROWS, N / (4 * forkJoinPool.getParallelism()) + 1);
+            forkJoinPool.invoke(new MultiplyTask(this, other, output, 0, N, rows));
+        } else {
+            multiplyRows(other, output, 0, N);
+        }
         return output;
     }
 
     /**
-     * Multiplies with the inverse
+     * Works out the rows of the output from {@code from} up to {@code to}, the way {@link Matrix#multiply(Matrix)}
+     * describes
      */
-    public Matrix divide(Matrix other){
-        if (!(isSquare() && other.isSquare() && M==other.M))
-            throw new ArithmeticException("When dividing, both matrices must be square matrices of the same dimension");
-
-        return multiply(other.inverse());
+    private void multiplyRows(Matrix other, Matrix output, int from, int to) {
+        Kernels kernels = Kernels.get();
+        if (other.M == 1) {
+            for (int n = from; n < to; n++) {
+                output.values[n] = kernels.dot(values, n * M, other.values, 0, M);
+            }
+            return;
+        }
+        int P = other.M;
+        double[] a = values, b = other.values, c = output.values;
+        double[][] block = new double[Math.min(BLOCK_ROWS, M)][Math.min(BLOCK_COLUMNS, P)];
+        double[] row = new double[Math.min(BLOCK_COLUMNS, P)];
+        for (int i0 = 0; i0 < M; i0 += BLOCK_ROWS) {
+            int i1 = Math.min(i0 + BLOCK_ROWS, M);
+            for (int m0 = 0; m0 < P; m0 += BLOCK_COLUMNS) {
+                int width = Math.min(BLOCK_COLUMNS, P - m0);
+                for (int i = i0; i < i1; i++) {
+                    System.arraycopy(b, i * P + m0, block[i - i0], 0, width);
+                }
+                for (int n = from; n < to; n++) {
+                    System.arraycopy(c, n * P + m0, row, 0, width);
+                    for (int i = i0; i < i1; i++) {
+                        kernels.addScaled(a[n * M + i], block[i - i0], 0, row, 0, width);
+                    }
+                    System.arraycopy(row, 0, c, n * P + m0, width);
+                }
+            }
+        }
     }
 
     /**
-     * https://gist.github.com/hallazzang/4e6abbb05ff2d3e168a87cf10691c4fb
+     * Rows of the output of a multiplication, which get split in half until there are few enough of them. Tasks are
+     * never serialised, even though {@link RecursiveAction} is {@link java.io.Serializable}.
      */
-    private static double _determinant(Matrix matrix) {
-        if (matrix.M == 1) {
-            return matrix.values[0][0];
-        } else if (matrix.M == 2) {
-            return matrix.values[0][0] * matrix.values[1][1] - matrix.values[0][1] * matrix.values[1][0];
-        } else {
-            double result = 0.0;
-
-            for (int col = 0; col < matrix.M; ++col) {
-                Matrix sub = matrix.subMatrix( 1, col + 1);
+    @SuppressWarnings("serial")
+    private static final class MultiplyTask extends RecursiveAction {
+        private final Matrix left, right, output;
+        private final int from, to, rows;
+
+        MultiplyTask(Matrix left, Matrix right, Matrix output, int from, int to, int rows) {
+            this.left = left;
+            this.right = right;
+            this.output = output;
+            this.from = from;
+            this.to = to;
+            this.rows = rows;
+        }
 
-                result += (Math.pow(-1, 1 + col + 1) * matrix.values[0][col] * _determinant(sub));
+        @Override
+        protected void compute() {
+            if (to - from <= rows) {
+                left.multiplyRows(right, output, from, to);
+                return;
             }
-
-            return result;
+            int middle = (from + to) >>> 1;
+            invokeAll(new MultiplyTask(left, right, output, from, middle, rows),
+                    new MultiplyTask(left, right, output, middle, to, rows));
         }
     }
 
+    /**
+     * Multiplies with the inverse, without working the inverse out
+     *
+     * @see LUDecomposition#solveRight(Matrix)
+     */
+    public Matrix divide(Matrix other){
+        if (!(isSquare() && other.isSquare() && M==other.M))
+            throw new ArithmeticException("When dividing, both matrices must be square matrices of the same dimension");
+
+        return new LUDecomposition(other).solveRight(this);
+    }
+
     /**
      * https://gist.github.com/hallazzang/4e6abbb05ff2d3e168a87cf10691c4fb
      */
@@ -172,7 +337,7 @@ public class Matrix implements Collection<Double> {
             if (row != excludedRow - 1) {
                 for (int col = 0, q = 0; col < M; ++col) {
                     if (col != excludedCol - 1) {
-                        result.values[p][q] = values[row][col];
+                        result.values[p * result.M + q] = values[row * M + col];
                         ++q;
                     }
                 }
@@ -184,32 +349,16 @@ public class Matrix implements Collection<Double> {
     }
 
     /**
-     * https://gist.github.com/hallazzang/4e6abbb05ff2d3e168a87cf10691c4fb
+     * Product of the diagonal of the {@link LUDecomposition}
      */
     public double determinant() {
         if (!isSquare()) throw new ArithmeticException("Cannot have determinant of a non-square matrix");
-        return _determinant(this);
+        return new LUDecomposition(this).determinant();
     }
 
-    /**
-     * https://gist.github.com/hallazzang/4e6abbb05ff2d3e168a87cf10691c4fb
-     */
     public Matrix inverse() {
-        double det = determinant();
-
-        if (det == 0.0) throw new ArithmeticException("Cannot get inverse with 0 determinant");
-
-        Matrix result = new Matrix(M, N);
-
-        for (int m = 0; m < M; ++m) {
-            for (int n = 0; n < N; ++n) {
-                Matrix sub = subMatrix(m + 1, n + 1);
-
-                result.values[n][m] = (1.0 / det * Math.pow(-1, m + n) * _determinant(sub));
-            }
-        }
-
-        return result;
+        if (!isSquare()) throw new ArithmeticException("Cannot get inverse of a non-square matrix");
+        return new LUDecomposition(this).inverse();
     }
 
     public boolean isSquare() {
@@ -219,7 +368,11 @@ public class Matrix implements Collection<Double> {
     public Matrix transpose() {
         Matrix result = new Matrix(N, M);
 
-        result.iterate((m, n, v) -> get(n, m));
+        for (int n = 0; n < N; n++) {
+            for (int m = 0; m < M; m++) {
+                result.values[m * N + n] = values[n * M + m];
+            }
+        }
 
         return result;
     }
@@ -261,7 +414,7 @@ public class Matrix implements Collection<Double> {
 
     @Override
     public boolean isEmpty() {
-        return Arrays.deepEquals(values, new double[M][N]);
+        return Arrays.equals(values, new double[values.length]);
     }
 
     @Override
@@ -275,23 +428,17 @@ public class Matrix implements Collection<Double> {
     @Override
     public Iterator<Double> iterator() {
         return new Iterator<Double>() {
-            int x = 0;
-            int y = 0;
+            int i = 0;
 
             @Override
             public boolean hasNext() {
-                return y != N && x != M;
+                return i < values.length;
             }
 
             @Override
             public Double next() {
-                double ret = values[x][y];
-                x++;
-                if (x == M) {
-                    x = 0;
-                    y++;
-                }
-                return ret;
+                if (!hasNext()) throw new NoSuchElementException();
+                return values[i++];
             }
         };
     }
@@ -299,20 +446,14 @@ public class Matrix implements Collection<Double> {
     @Override
     public Object[] toArray() {
         Double[] array = new Double[M * N];
-        iterate((m, n, v) -> {
-            array[M * n + m] = v;
-            return v;
-        });
+        forEach((m, n, v) -> array[M * n + m] = v);
         return array;
     }
 
     @Override
     public <T> T[] toArray(T[] a) {
         Double[] arrayData = new Double[M * N];
-        iterate((m, n, v) -> {
-            arrayData[M * n + m] = v;
-            return v;
-        });
+        forEach((m, n, v) -> arrayData[M * n + m] = v);
         if (a.length < size())
             // Make a new array of a's runtime type, but my contents:
             //noinspection unchecked
@@ -358,6 +499,7 @@ public class Matrix implements Collection<Double> {
 
     @Override
     public void clear() {
-        this.values = new double[M][N];
+        this.values = new double[M * N];
+        modifications++;
     }
 }
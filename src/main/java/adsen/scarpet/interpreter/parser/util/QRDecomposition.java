@@ -0,0 +1,87 @@
+package adsen.scarpet.interpreter.parser.util;
+
+/**
+ * QR decomposition of a matrix with at least as many rows as columns, using Householder reflections, so that it is
+ * {@code Q * R}, where {@code Q} has orthonormal columns and {@code R} nothing below its diagonal. Used to solve
+ * systems with more equations than unknowns, which it does in the least squares sense, and which an
+ * {@link LUDecomposition} can't do.
+ */
+public class QRDecomposition {
+    private final int rows;
+    private final int columns;
+    /**
+     * The Householder vectors on and below the diagonal and {@code R} above it, rows for rows
+     */
+    private final double[] qr;
+    private final double[] diagonal;
+
+    public QRDecomposition(Matrix matrix) {
+        if (matrix.N < matrix.M)
+            throw new ArithmeticException("Cannot decompose a matrix with fewer rows than columns");
+        rows = matrix.N;
+        columns = matrix.M;
+        qr = matrix.values().clone();
+        diagonal = new double[columns];
+
+        for (int k = 0; k < columns; k++) {
+            double norm = 0.0;
+            for (int n = k; n < rows; n++) norm = Math.hypot(norm, qr[n * columns + k]);
+            if (norm != 0.0) {
+                if (qr[k * columns + k] < 0) norm = -norm;
+                for (int n = k; n < rows; n++) qr[n * columns + k] /= norm;
+                qr[k * columns + k] += 1.0;
+                for (int m = k + 1; m < columns; m++) {
+                    double s = 0.0;
+                    for (int n = k; n < rows; n++) s += qr[n * columns + k] * qr[n * columns + m];
+                    s = -s / qr[k * columns + k];
+                    for (int n = k; n < rows; n++) qr[n * columns + m] += s * qr[n * columns + k];
+                }
+            }
+            diagonal[k] = -norm;
+        }
+    }
+
+    /**
+     * Whether the columns of the matrix are independent, otherwise there is no single solution to find
+     */
+    public boolean isFullRank() {
+        for (double d : diagonal) {
+            if (d == 0.0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Finds the {@code X} which makes {@code A * X} as close to {@code B} as it gets, where {@code A} is the
+     * decomposed matrix, which is the exact solution if there is one.
+     *
+     * @param b Matrix with a column for each right hand side
+     */
+    public Matrix solve(Matrix b) {
+        if (b.N != rows)
+            throw new ArithmeticException("Right hand side needs " + rows + " rows to solve with a " + columns + "x" + rows + " matrix");
+        if (!isFullRank()) throw new ArithmeticException("Cannot solve with a rank deficient matrix");
+        int width = b.M;
+        double[] x = b.values().clone();
+        // Q^T * B
+        for (int k = 0; k < columns; k++) {
+            for (int m = 0; m < width; m++) {
+                double s = 0.0;
+                for (int n = k; n < rows; n++) s += qr[n * columns + k] * x[n * width + m];
+                s = -s / qr[k * columns + k];
+                for (int n = k; n < rows; n++) x[n * width + m] += s * qr[n * columns + k];
+            }
+        }
+        // R * X = Q^T * B, going up from the last row
+        Kernels kernels = Kernels.get();
+        for (int k = columns - 1; k >= 0; k--) {
+            for (int m = k * width; m < (k + 1) * width; m++) x[m] /= diagonal[k];
+            for (int n = 0; n < k; n++) {
+                kernels.addScaled(-qr[n * columns + k], x, k * width, x, n * width, width);
+            }
+        }
+        double[] result = new double[columns * width];
+        System.arraycopy(x, 0, result, 0, result.length);
+        return new Matrix(width, columns, result);
+    }
+}
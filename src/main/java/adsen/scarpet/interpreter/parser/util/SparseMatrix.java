@@ -0,0 +1,355 @@
+package adsen.scarpet.interpreter.parser.util;
+
+import java.util.Arrays;
+
+/**
+ * Matrix which only keeps the values that aren't 0, for ones that are nearly all zeros, like those of graphs. Rows are
+ * compressed, each keeping the columns of its values in order, along with the values. Every row has arrays of its own,
+ * rather than all of them sharing one, so that setting a value only moves the ones after it in its row.
+ * <p>
+ * Setting a value to 0 takes it out, and results of operations leave out the zeros they come to, so only values that
+ * aren't 0 are ever kept. Operations with dense {@link Matrix matrices} give dense ones, as the zeros are gone anyway.
+ */
+public class SparseMatrix {
+    private static final int[] NO_COLUMNS = new int[0];
+    private static final double[] NO_VALUES = new double[0];
+
+    /**
+     * The length of the matrix - number of columns
+     */
+    public final int M;
+    /**
+     * The width of the matrix - number for rows
+     */
+    public final int N;
+    /**
+     * Columns of the values of each row, from left to right
+     */
+    private final int[][] columns;
+    private final double[][] values;
+    /**
+     * How many values each row has, the arrays can have room for more
+     */
+    private final int[] counts;
+    private int modifications;
+
+    public SparseMatrix(int M, int N) {
+        if (M <= 0 || N <= 0) throw new ArithmeticException("Matrix must have at least one row and column, not " + N + "x" + M);
+        this.M = M;
+        this.N = N;
+        this.columns = new int[N][];
+        this.values = new double[N][];
+        this.counts = new int[N];
+        Arrays.fill(columns, NO_COLUMNS);
+        Arrays.fill(values, NO_VALUES);
+    }
+
+    /**
+     * The values of the dense matrix which aren't 0
+     */
+    public static SparseMatrix of(Matrix dense) {
+        SparseMatrix result = new SparseMatrix(dense.M, dense.N);
+        double[] from = dense.values();
+        for (int n = 0; n < dense.N; n++) {
+            for (int m = 0; m < dense.M; m++) {
+                double value = from[n * dense.M + m];
+                if (value != 0.0) result.append(n, m, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Puts the value at the end of the row, which has to have nothing at or after its column yet
+     */
+    private void append(int n, int m, double value) {
+        int count = counts[n];
+        if (count == columns[n].length) grow(n);
+        columns[n][count] = m;
+        values[n][count] = value;
+        counts[n] = count + 1;
+    }
+
+    private void grow(int n) {
+        int capacity = Math.max(4, columns[n].length * 2);
+        columns[n] = Arrays.copyOf(columns[n], capacity);
+        values[n] = Arrays.copyOf(values[n], capacity);
+    }
+
+    private void checkPosition(int x, int y) {
+        if (x < 0 || x >= M || y < 0 || y >= N)
+            throw new ArithmeticException("Position (" + x + ", " + y + ") is outside of a " + M + "x" + N + " matrix");
+    }
+
+    /**
+     * Returns the value at a given coordinate
+     *
+     * @return The value at this position
+     * @throws ArithmeticException() if x or y is greater than M or N size of this matrix or negative
+     */
+    public double get(int x, int y) {
+        checkPosition(x, y);
+        int i = Arrays.binarySearch(columns[y], 0, counts[y], x);
+        return i < 0 ? 0.0 : values[y][i];
+    }
+
+    /**
+     * Sets a given value at a given position, setting it to 0 takes it out.
+     *
+     * @return The old value at this position
+     * @throws ArithmeticException() if x or y is greater than M or N size of this matrix or negative
+     */
+    public double set(int x, int y, double newValue) {
+        checkPosition(x, y);
+        int count = counts[y];
+        int i = Arrays.binarySearch(columns[y], 0, count, x);
+        double oldValue = i < 0 ? 0.0 : values[y][i];
+        if (i >= 0) {
+            if (newValue != 0.0) {
+                values[y][i] = newValue;
+            } else {
+                System.arraycopy(columns[y], i + 1, columns[y], i, count - i - 1);
+                System.arraycopy(values[y], i + 1, values[y], i, count - i - 1);
+                counts[y] = count - 1;
+            }
+        } else if (newValue != 0.0) {
+            i = -i - 1;
+            if (count == columns[y].length) grow(y);
+            System.arraycopy(columns[y], i, columns[y], i + 1, count - i);
+            System.arraycopy(values[y], i, values[y], i + 1, count - i);
+            columns[y][i] = x;
+            values[y][i] = newValue;
+            counts[y] = count + 1;
+        }
+        modifications++;
+        return oldValue;
+    }
+
+    /**
+     * Goes up each time values of the matrix are set
+     */
+    public int modifications() {
+        return modifications;
+    }
+
+    /**
+     * How many values there are which aren't 0
+     */
+    public long nonZeros() {
+        long nonZeros = 0;
+        for (int count : counts) nonZeros += count;
+        return nonZeros;
+    }
+
+    public boolean isSquare() {
+        return M == N;
+    }
+
+    /**
+     * The same matrix, with its zeros
+     */
+    public Matrix toDense() {
+        Matrix result = new Matrix(M, N);
+        double[] to = result.values();
+        for (int n = 0; n < N; n++) {
+            for (int i = 0; i < counts[n]; i++) {
+                to[n * M + columns[n][i]] = values[n][i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds the values of another matrix to those of this one, and returns the answer as a new matrix.
+     */
+    public SparseMatrix add(SparseMatrix other) {
+        return merge(other, 1.0D);
+    }
+
+    /**
+     * Subtracts the values of another matrix from those of this one, and returns the answer as a new matrix.
+     */
+    public SparseMatrix subtract(SparseMatrix other) {
+        return merge(other, -1.0D);
+    }
+
+    /**
+     * Goes through the rows of both matrices side by side, adding the values of the other one times the scale
+     */
+    private SparseMatrix merge(SparseMatrix other, double scale) {
+        if (other.M != M || other.N != N) throw new ArithmeticException("Cannot add matrices of uneven sizes");
+        SparseMatrix result = new SparseMatrix(M, N);
+        for (int n = 0; n < N; n++) {
+            int[] aColumns = columns[n], bColumns = other.columns[n];
+            double[] aValues = values[n], bValues = other.values[n];
+            int i = 0, j = 0, aCount = counts[n], bCount = other.counts[n];
+            while (i < aCount || j < bCount) {
+                int a = i < aCount ? aColumns[i] : M, b = j < bCount ? bColumns[j] : M;
+                double value;
+                if (a < b) {
+                    value = aValues[i++];
+                } else if (b < a) {
+                    value = scale * bValues[j++];
+                } else {
+                    value = aValues[i++] + scale * bValues[j++];
+                }
+                if (value != 0.0) result.append(n, Math.min(a, b), value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds this matrix times the scale to the dense one, and returns the answer as a new dense matrix
+     */
+    public Matrix addTo(Matrix dense, double scale) {
+        if (dense.M != M || dense.N != N) throw new ArithmeticException("Cannot add matrices of uneven sizes");
+        double[] result = dense.values().clone();
+        for (int n = 0; n < N; n++) {
+            for (int i = 0; i < counts[n]; i++) {
+                result[n * M + columns[n][i]] += scale * values[n][i];
+            }
+        }
+        return new Matrix(M, N, result);
+    }
+
+    /**
+     * Multiplies this matrix with a scalar
+     */
+    public SparseMatrix multiply(double other) {
+        SparseMatrix result = new SparseMatrix(M, N);
+        for (int n = 0; n < N; n++) {
+            for (int i = 0; i < counts[n]; i++) {
+                double value = values[n][i] * other;
+                if (value != 0.0) result.append(n, columns[n][i], value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Multiplication with a dense matrix. Each row of the output gets the rows of the other matrix added to it, scaled
+     * by the values in this one's row, so only the values which aren't 0 get multiplied.
+     */
+    public Matrix multiply(Matrix other) {
+        if (other.N != M)
+            throw new ArithmeticException("When multiplying, the first matrix must have the same number of columns as the second's rows");
+        int P = other.M;
+        Matrix output = new Matrix(P, N);
+        double[] b = other.values(), c = output.values();
+        Kernels kernels = Kernels.get();
+        for (int n = 0; n < N; n++) {
+            for (int i = 0; i < counts[n]; i++) {
+                kernels.addScaled(values[n][i], b, columns[n][i] * P, c, n * P, P);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Multiplication of a dense matrix with this one, so {@code dense * this}. Rows of this one are added to each row
+     * of the output, scaled by the values of the dense one's row, skipping the ones which are 0.
+     */
+    public Matrix multiplyLeft(Matrix dense) {
+        if (N != dense.M)
+            throw new ArithmeticException("When multiplying, the first matrix must have the same number of columns as the second's rows");
+        Matrix output = new Matrix(M, dense.N);
+        double[] a = dense.values(), c = output.values();
+        for (int n = 0; n < dense.N; n++) {
+            for (int k = 0; k < N; k++) {
+                double scale = a[n * N + k];
+                if (scale == 0.0) continue;
+                for (int i = 0; i < counts[k]; i++) {
+                    c[n * M + columns[k][i]] += scale * values[k][i];
+                }
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Multiplication with another sparse matrix. Each row of the output is added up in a dense array, remembering
+     * which of its columns got anything, which then get sorted and copied into the row.
+     */
+    public SparseMatrix multiply(SparseMatrix other) {
+        if (other.N != M)
+            throw new ArithmeticException("When multiplying, the first matrix must have the same number of columns as the second's rows");
+        int P = other.M;
+        SparseMatrix output = new SparseMatrix(P, N);
+        double[] sums = new double[P];
+        boolean[] used = new boolean[P];
+        int[] touched = new int[P];
+        for (int n = 0; n < N; n++) {
+            int count = 0;
+            for (int i = 0; i < counts[n]; i++) {
+                int k = columns[n][i];
+                double scale = values[n][i];
+                for (int j = 0; j < other.counts[k]; j++) {
+                    int m = other.columns[k][j];
+                    if (!used[m]) {
+                        used[m] = true;
+                        touched[count++] = m;
+                        sums[m] = scale * other.values[k][j];
+                    } else {
+                        sums[m] += scale * other.values[k][j];
+                    }
+                }
+            }
+            Arrays.sort(touched, 0, count);
+            for (int t = 0; t < count; t++) {
+                int m = touched[t];
+                if (sums[m] != 0.0) output.append(n, m, sums[m]);
+                used[m] = false;
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Whether both matrices have the same values
+     */
+    public boolean valuesEqual(SparseMatrix other) {
+        if (other.M != M || other.N != N) return false;
+        for (int n = 0; n < N; n++) {
+            int count = counts[n];
+            if (other.counts[n] != count
+                    || !Arrays.equals(columns[n], 0, count, other.columns[n], 0, count)
+                    || !Arrays.equals(values[n], 0, count, other.values[n], 0, count))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Whether the dense matrix has the same values as this one
+     */
+    public boolean valuesEqual(Matrix dense) {
+        if (dense.M != M || dense.N != N) return false;
+        double[] other = dense.values();
+        for (int n = 0; n < N; n++) {
+            for (int m = 0, i = 0; m < M; m++) {
+                double value = i < counts[n] && columns[n][i] == m ? values[n][i++] : 0.0;
+                if (value != other[n * M + m]) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lists the values which aren't 0, with their (column, row) positions, as a dense matrix of this size would take a lot
+     * of space. The size goes rows first, like in {@code sparse_matrix(rows, columns)}.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder().append(N).append('x').append(M).append(" sparse matrix {");
+        boolean first = true;
+        for (int n = 0; n < N; n++) {
+            for (int i = 0; i < counts[n]; i++) {
+                if (!first) sb.append(", ");
+                first = false;
+                sb.append('(').append(columns[n][i]).append(", ").append(n).append("): ").append(values[n][i]);
+            }
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -21,6 +21,11 @@ public class BooleanValue extends NumericValue
         return boolValue?"true":"false";
     }
 
+    @Override
+    public void appendTo(StringBuilder sb) {
+        sb.append(getString());
+    }
+
     @Override
     public String getPrettyString() {
         return getString();
@@ -36,10 +41,6 @@ public class BooleanValue extends NumericValue
         return new BooleanValue(boolValue);
     }
 
-    @Override
-    public int hashCode() {
-        return Boolean.hashCode(boolValue);
-    }
     //todo json
     //@Override
     //public JsonElement toJson() {
@@ -0,0 +1,383 @@
+package adsen.scarpet.interpreter.parser.value;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Entries of a {@link MapValue}, kept in a table made for the type of its keys, as most maps only have one. As long as
+ * all keys are integers, they are kept as {@code long}s, and as long as they are all strings, their hashes are kept
+ * alongside them, both in open addressing tables without an object per entry. Maps with only a few string keys don't
+ * even have a table, just their values in the order given by their {@link Shape}. Once a key of any other type goes
+ * in, everything moves to a {@link HashMap}. It stays the same object through all of it, so maps sharing it keep
+ * seeing each other's changes.
+ */
+final class CompactMap extends AbstractMap<Value, Value> {
+    private static final int EMPTY = 0;
+    private static final int SHAPED = 1;
+    private static final int INTEGERS = 2;
+    private static final int STRINGS = 3;
+    private static final int GENERIC = 4;
+    private static final int MIN_CAPACITY = 8;
+
+    private int kind = EMPTY;
+    private int size = 0;
+    /**
+     * Keys of an {@link CompactMap#INTEGERS} table
+     */
+    private long[] integerKeys;
+    /**
+     * Keys of a {@link CompactMap#STRINGS} table, and their hashes
+     */
+    private StringValue[] stringKeys;
+    private int[] hashes;
+    /**
+     * Keys of a {@link CompactMap#SHAPED} map
+     */
+    private Shape shape;
+    /**
+     * Values of either table, {@code null} where the slot is free, or of a {@link CompactMap#SHAPED} map, in the order
+     * of its keys
+     */
+    private Value[] values;
+    private Map<Value, Value> generic;
+
+    CompactMap() {
+    }
+
+    CompactMap(Map<Value, Value> entries) {
+        putAll(entries);
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Whether the key goes in an {@link CompactMap#INTEGERS} table. Other numbers equal to it, like {@code true},
+     * can still be used to look it up.
+     */
+    private static boolean isIntegerKey(Object key) {
+        return key != null && key.getClass() == NumericValue.class && ((NumericValue) key).isInteger();
+    }
+
+    private static boolean isStringKey(Object key) {
+        return key != null && key.getClass() == StringValue.class;
+    }
+
+    @Override
+    public int size() {
+        return kind == GENERIC ? generic.size() : size;
+    }
+
+    /**
+     * Slot of the key in an {@link CompactMap#INTEGERS} table, or the free one where it would go
+     */
+    private int integerSlot(long key) {
+        int mask = values.length - 1;
+        int i = spread(Long.hashCode(key)) & mask;
+        while (values[i] != null && integerKeys[i] != key)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    /**
+     * Slot of the key in a {@link CompactMap#STRINGS} table, or the free one where it would go
+     */
+    private int stringSlot(Object key, int hash) {
+        int mask = values.length - 1;
+        int i = spread(hash) & mask;
+        while (values[i] != null && (hashes[i] != hash || !stringKeys[i].equals(key)))
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    /**
+     * Slot of the key in the table, or -1 if it's not there
+     */
+    private int find(Object key) {
+        if (kind == SHAPED)
+            return shape.indexOf(key);
+        if (kind == INTEGERS) {
+            if (!(key instanceof NumericValue n) || key instanceof NullValue || !n.isInteger())
+                return -1;
+            int i = integerSlot(n.getLong());
+            return values[i] == null ? -1 : i;
+        }
+        if (kind == STRINGS) {
+            if (!isStringKey(key))
+                return -1;
+            int i = stringSlot(key, key.hashCode());
+            return values[i] == null ? -1 : i;
+        }
+        return -1;
+    }
+
+    @Override
+    public Value get(Object key) {
+        if (kind == GENERIC)
+            return generic.get(key);
+        int i = find(key);
+        return i < 0 ? null : values[i];
+    }
+
+    @Override
+    public Value getOrDefault(Object key, Value defaultValue) {
+        if (kind == GENERIC)
+            return generic.getOrDefault(key, defaultValue);
+        int i = find(key);
+        return i < 0 ? defaultValue : values[i];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (kind == GENERIC)
+            return generic.containsKey(key);
+        return find(key) >= 0;
+    }
+
+    @Override
+    public Value put(Value key, Value value) {
+        if (value != null) {
+            if (kind == EMPTY) {
+                if (isIntegerKey(key)) {
+                    kind = INTEGERS;
+                    integerKeys = new long[MIN_CAPACITY];
+                    values = new Value[MIN_CAPACITY];
+                } else if (isStringKey(key)) {
+                    kind = SHAPED;
+                    shape = Shape.EMPTY;
+                    values = new Value[4];
+                }
+            }
+            if (kind == SHAPED && isStringKey(key)) {
+                int i = shape.indexOf(key);
+                if (i >= 0) {
+                    Value old = values[i];
+                    values[i] = value;
+                    return old;
+                }
+                Shape next = shape.with((StringValue) key);
+                if (next != null) {
+                    if (size == values.length) values = Arrays.copyOf(values, size * 2);
+                    values[size++] = value;
+                    shape = next;
+                    return null;
+                }
+                toStrings();
+            }
+            if (kind == INTEGERS && isIntegerKey(key)) {
+                if ((size + 1) * 4 > values.length * 3) resize(values.length * 2);
+                long k = ((NumericValue) key).getLong();
+                int i = integerSlot(k);
+                Value old = values[i];
+                if (old == null) {
+                    integerKeys[i] = k;
+                    size++;
+                }
+                values[i] = value;
+                return old;
+            }
+            if (kind == STRINGS && isStringKey(key)) {
+                if ((size + 1) * 4 > values.length * 3) resize(values.length * 2);
+                int hash = key.hashCode();
+                int i = stringSlot(key, hash);
+                Value old = values[i];
+                if (old == null) {
+                    stringKeys[i] = (StringValue) key;
+                    hashes[i] = hash;
+                    size++;
+                }
+                values[i] = value;
+                return old;
+            }
+        }
+        if (kind != GENERIC)
+            toGeneric();
+        return generic.put(key, value);
+    }
+
+    @Override
+    public Value remove(Object key) {
+        if (kind == GENERIC)
+            return generic.remove(key);
+        int i = find(key);
+        if (i < 0)
+            return null;
+        Value old = values[i];
+        if (kind == SHAPED) {
+            Shape next = shape.without(i);
+            if (next == null) {
+                toStrings();
+                return remove(key);
+            }
+            System.arraycopy(values, i + 1, values, i, size - i - 1);
+            values[--size] = null;
+            shape = next;
+            return old;
+        }
+        removeSlot(i);
+        size--;
+        return old;
+    }
+
+    /**
+     * Frees the slot, moving back the entries after it that would no longer be found past the gap
+     */
+    private void removeSlot(int i) {
+        int mask = values.length - 1;
+        for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+            int home = spread(kind == INTEGERS ? Long.hashCode(integerKeys[j]) : hashes[j]) & mask;
+            boolean staysPut = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (!staysPut) {
+                moveSlot(j, i);
+                i = j;
+            }
+        }
+        values[i] = null;
+        if (kind == STRINGS)
+            stringKeys[i] = null;
+    }
+
+    private void moveSlot(int from, int to) {
+        values[to] = values[from];
+        if (kind == INTEGERS) {
+            integerKeys[to] = integerKeys[from];
+        } else {
+            stringKeys[to] = stringKeys[from];
+            hashes[to] = hashes[from];
+        }
+    }
+
+    private void resize(int capacity) {
+        Value[] oldValues = values;
+        long[] oldIntegerKeys = integerKeys;
+        StringValue[] oldStringKeys = stringKeys;
+        int[] oldHashes = hashes;
+        values = new Value[capacity];
+        if (kind == INTEGERS) {
+            integerKeys = new long[capacity];
+            for (int j = 0; j < oldValues.length; j++) {
+                if (oldValues[j] == null) continue;
+                int i = integerSlot(oldIntegerKeys[j]);
+                integerKeys[i] = oldIntegerKeys[j];
+                values[i] = oldValues[j];
+            }
+        } else {
+            stringKeys = new StringValue[capacity];
+            hashes = new int[capacity];
+            for (int j = 0; j < oldValues.length; j++) {
+                if (oldValues[j] == null) continue;
+                int i = stringSlot(oldStringKeys[j], oldHashes[j]);
+                stringKeys[i] = oldStringKeys[j];
+                hashes[i] = oldHashes[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /**
+     * Moves the entries of a {@link CompactMap#SHAPED} map into a table
+     */
+    private void toStrings() {
+        Shape keys = shape;
+        Value[] oldValues = values;
+        int count = size;
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 < (count + 1) * 4)
+            capacity *= 2;
+        kind = STRINGS;
+        shape = null;
+        size = 0;
+        stringKeys = new StringValue[capacity];
+        hashes = new int[capacity];
+        values = new Value[capacity];
+        for (int i = 0; i < count; i++)
+            put(keys.keyAt(i), oldValues[i]);
+    }
+
+    private void toGeneric() {
+        Map<Value, Value> entries = new HashMap<>(Math.max(16, size * 2));
+        for (Map.Entry<Value, Value> entry : entrySet())
+            entries.put(entry.getKey(), entry.getValue());
+        generic = entries;
+        kind = GENERIC;
+        shape = null;
+        integerKeys = null;
+        stringKeys = null;
+        hashes = null;
+        values = null;
+        size = 0;
+    }
+
+    @Override
+    public void clear() {
+        kind = EMPTY;
+        size = 0;
+        shape = null;
+        integerKeys = null;
+        stringKeys = null;
+        hashes = null;
+        values = null;
+        generic = null;
+    }
+
+    @Override
+    public Set<Map.Entry<Value, Value>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<Value, Value>> iterator() {
+                if (kind == GENERIC)
+                    return generic.entrySet().iterator();
+                if (kind == EMPTY)
+                    return Collections.emptyIterator();
+                return new SlotIterator();
+            }
+
+            @Override
+            public int size() {
+                return CompactMap.this.size();
+            }
+        };
+    }
+
+    /**
+     * Goes through the slots of either table, or the values of a {@link CompactMap#SHAPED} map. Integer keys are made
+     * into numbers again as they are reached.
+     */
+    private final class SlotIterator implements Iterator<Map.Entry<Value, Value>> {
+        private final Value[] slots = values;
+        private int next = advance(0);
+
+        private int advance(int from) {
+            while (from < slots.length && slots[from] == null)
+                from++;
+            return from;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < slots.length;
+        }
+
+        @Override
+        public Map.Entry<Value, Value> next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            int i = next;
+            next = advance(i + 1);
+            Value key = switch (kind) {
+                case SHAPED -> shape.keyAt(i);
+                case INTEGERS -> NumericValue.of(integerKeys[i]);
+                default -> stringKeys[i];
+            };
+            return new SimpleImmutableEntry<>(key, slots[i]);
+        }
+    }
+}
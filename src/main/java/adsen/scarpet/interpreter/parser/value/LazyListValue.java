@@ -50,6 +50,12 @@ public abstract class LazyListValue extends ListValue implements Iterator<Value>
         return "[...]";
     }
 
+    @Override
+    public void appendTo(StringBuilder sb)
+    {
+        sb.append("[...]");
+    }
+
     @Override
     public boolean getBoolean()
     {
@@ -106,4 +112,16 @@ public abstract class LazyListValue extends ListValue implements Iterator<Value>
         return false;
     }
 
+    @Override
+    public boolean equals(Object o)
+    {
+        return this == o;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return System.identityHashCode(this);
+    }
+
 }
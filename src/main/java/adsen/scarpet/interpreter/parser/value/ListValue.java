@@ -12,7 +12,18 @@ import java.util.stream.Collectors;
 import static java.lang.Math.abs;
 
 public class ListValue extends AbstractListValue implements ContainerValueInterface {
+    /**
+     * Lists with more items than this get them put in a {@link PersistentVector} once they are copied or sliced,
+     * so that copies share them
+     */
+    private static final int PERSISTENT_THRESHOLD = 64;
+
     protected List<Value> items;
+    /**
+     * Whether {@link ListValue#items} is shared with a copy of this list, so it has to be copied before it's changed.
+     * This makes copies, like the ones made whenever a list is assigned or passed to a function, cheap.
+     */
+    private boolean shared = false;
 
     public ListValue(Collection<? extends Value> list) {
         items = new ArrayList<>();
@@ -33,6 +44,14 @@ public class ListValue extends AbstractListValue implements ContainerValueInterf
         return ListValue.wrap(Arrays.asList(list));
     }
 
+    /**
+     * Wraps the items, keeping them in a {@link NumericList} if they are all numbers
+     */
+    public static ListValue wrapNumbers(List<Value> list) {
+        NumericList numbers = NumericList.of(list);
+        return ListValue.wrap(numbers != null ? numbers : list);
+    }
+
     /**
      * Finds a proper list index >=0 and < len that correspont to the rolling index value of idx
      */
@@ -46,7 +65,19 @@ public class ListValue extends AbstractListValue implements ContainerValueInterf
 
     @Override
     public String getString() {
-        return "[" + items.stream().map(Value::getString).collect(Collectors.joining(", ")) + "]";
+        StringBuilder sb = new StringBuilder();
+        appendTo(sb);
+        return sb.toString();
+    }
+
+    @Override
+    public void appendTo(StringBuilder sb) {
+        sb.append('[');
+        for (int i = 0; i < items.size(); i++) {
+            if (i > 0) sb.append(", ");
+            items.get(i).appendTo(sb);
+        }
+        sb.append(']');
     }
 
     @Override
@@ -67,13 +98,66 @@ public class ListValue extends AbstractListValue implements ContainerValueInterf
         return !items.isEmpty();
     }
 
+    /**
+     * Numeric lists don't go in a {@link PersistentVector}, as copying their whole array is cheap enough
+     */
     @Override
     public Value clone() {
-        return new ListValue(items);
+        if (items.size() > PERSISTENT_THRESHOLD && !(items instanceof PersistentVector) && !(items instanceof NumericList))
+            items = new PersistentVector(items);
+        ListValue copy = ListValue.wrap(items);
+        copy.shared = shared = true;
+        return copy;
+    }
+
+    /**
+     * Makes sure {@link ListValue#items} belongs to this list only, before it gets changed
+     */
+    private void ownItems() {
+        if (shared) {
+            if (items instanceof PersistentVector vector) {
+                items = vector.fork();
+            } else if (items instanceof NumericList numbers) {
+                items = numbers.copy();
+            } else {
+                items = new ArrayList<>(items);
+            }
+            shared = false;
+        }
+    }
+
+    /**
+     * Makes sure {@link ListValue#items} belongs to this list only and can take the given item, moving numeric lists
+     * into a regular one if it's not a number
+     */
+    private void ownItemsFor(Value item) {
+        if (items instanceof NumericList && !NumericList.fits(item)) {
+            items = new ArrayList<>(items);
+            shared = false;
+        } else {
+            ownItems();
+        }
+    }
+
+    /**
+     * Does the arithmetic on the arrays directly, if both this and the other list, or number, are numeric
+     *
+     * @return {@code null} if they aren't
+     */
+    private ListValue applyToNumbers(NumericList.Operation operation, Value other) {
+        if (!(items instanceof NumericList numbers))
+            return null;
+        if (other instanceof ListValue ol && ol.items instanceof NumericList otherNumbers && otherNumbers.size() == numbers.size())
+            return ListValue.wrap(numbers.apply(operation, otherNumbers));
+        if (NumericList.fits(other))
+            return ListValue.wrap(numbers.apply(operation, ((NumericValue) other).getDouble()));
+        return null;
     }
 
     @Override
     public Value add(Value other) {
+        ListValue numbers = applyToNumbers(NumericList.Operation.ADD, other);
+        if (numbers != null) return numbers;
         ListValue output = new ListValue();
         if (other instanceof ListValue) {
             List<Value> other_list = ((ListValue) other).items;
@@ -93,10 +177,13 @@ public class ListValue extends AbstractListValue implements ContainerValueInterf
     }
 
     public void append(Value v) {
+        ownItemsFor(v);
         items.add(v);
     }
 
     public Value subtract(Value other) {
+        ListValue numbers = applyToNumbers(NumericList.Operation.SUBTRACT, other);
+        if (numbers != null) return numbers;
         ListValue output = new ListValue();
         if (other instanceof ListValue) {
             List<Value> other_list = ((ListValue) other).items;
@@ -121,6 +208,8 @@ public class ListValue extends AbstractListValue implements ContainerValueInterf
     }
 
     public Value multiply(Value other) {
+        ListValue numbers = applyToNumbers(NumericList.Operation.MULTIPLY, other);
+        if (numbers != null) return numbers;
         ListValue output = new ListValue();
         if (other instanceof ListValue) {
             List<Value> other_list = ((ListValue) other).items;
@@ -140,6 +229,8 @@ public class ListValue extends AbstractListValue implements ContainerValueInterf
     }
 
     public Value divide(Value other) {
+        ListValue numbers = applyToNumbers(NumericList.Operation.DIVIDE, other);
+        if (numbers != null) return numbers;
         ListValue output = new ListValue();
         if (other instanceof ListValue) {
             List<Value> other_list = ((ListValue) other).items;
@@ -190,6 +281,22 @@ public class ListValue extends AbstractListValue implements ContainerValueInterf
         return false;
     }
 
+    /**
+     * Lists can change, so their hash isn't cached, and they shouldn't be changed while they are keys of a map
+     */
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ListValue ol && !(o instanceof LazyListValue) && items.equals(ol.items);
+    }
+
+    @Override
+    public int hashCode() {
+        return items.hashCode();
+    }
+
+    /**
+     * The items of the list, which may be shared with copies of it, so they must not be changed
+     */
     public List<Value> getItems() {
         return items;
     }
@@ -199,16 +306,20 @@ public class ListValue extends AbstractListValue implements ContainerValueInterf
     }
 
     public void extend(List<Value> subList) {
-        for (Value v : subList)
+        for (Value v : subList) {
+            ownItemsFor(v);
             items.add(v);
+        }
     }
 
     public void addAtIndex(int index, List<Value> subList) {
+        ownItems();
         int numitems = items.size();
         long range = abs(index) / numitems;
         index += (range + 2) * numitems;
         index = index % numitems;
         for (Value v : subList) {
+            ownItemsFor(v);
             if (index < numitems) {
                 items.set(index, v);
             } else {
@@ -241,6 +352,13 @@ public class ListValue extends AbstractListValue implements ContainerValueInterf
         if (from < 0 || from > size) from = size;
         if (from > to)
             return ListValue.of();
+        if (items instanceof NumericList numbers)
+            return ListValue.wrap(numbers.slice((int) from, (int) to));
+        if (to - from > PERSISTENT_THRESHOLD) {
+            if (!(items instanceof PersistentVector))
+                this.items = new PersistentVector(items);
+            return ListValue.wrap(((PersistentVector) this.items).slice((int) from, (int) to));
+        }
         return new ListValue(getItems().subList((int) from, (int) to));
     }
 
@@ -251,6 +369,7 @@ public class ListValue extends AbstractListValue implements ContainerValueInterf
 
     @Override
     public boolean put(Value where, Value value) {
+        ownItemsFor(value);
         Value ret = items.set(NumericValue.asNumber(where, "'address' to a list index").getInt(), value);
         return ret != null;
     }
@@ -270,13 +389,51 @@ public class ListValue extends AbstractListValue implements ContainerValueInterf
     public boolean delete(Value where) {
         if (!(where instanceof NumericValue) || items.isEmpty()) return false;
         long index = ((NumericValue) where).getLong();
+        ownItems();
         items.remove(normalizeIndex(index, items.size()));
         return true;
     }
 
+    /**
+     * Whether all the items are numbers, so that the list can be used as a vector with matrices
+     */
+    public boolean canBeVector() {
+        if (items instanceof NumericList)
+            return true;
+        for (Value v : items)
+            if (!(v instanceof NumericValue) || v instanceof NullValue) return false;
+        return true;
+    }
+
+    /**
+     * The items as a column vector, see {@link ListValue#canBeVector()}
+     */
+    public MatrixValue toVector() {
+        double[][] column = new double[items.size()][1];
+        for (int i = 0; i < column.length; i++)
+            column[i][0] = items instanceof NumericList numbers ? numbers.getDouble(i) : ((NumericValue) items.get(i)).getDouble();
+        return new MatrixValue(column);
+    }
+
     public static class ListConstructorValue extends ListValue {
+        /**
+         * Items which are all numbers get packed, unless some are variables, which it may be assigning to
+         */
         public ListConstructorValue(Collection<? extends Value> list) {
             super(list);
+            for (Value v : items)
+                if (v.boundVariable != null) return;
+            NumericList numbers = NumericList.of(items);
+            if (numbers != null) items = numbers;
+        }
+
+        /**
+         * Lists of variables can't be packed when made, but the copy which gets assigned or passed on can
+         */
+        @Override
+        public Value clone() {
+            NumericList numbers = items instanceof NumericList ? null : NumericList.of(items);
+            return numbers != null ? ListValue.wrap(numbers) : super.clone();
         }
     }
 }
@@ -3,7 +3,6 @@ package adsen.scarpet.interpreter.parser.value;
 import adsen.scarpet.interpreter.parser.exception.InternalExpressionException;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -11,10 +10,20 @@ import java.util.Set;
 import java.util.stream.Collectors;
 
 public class MapValue extends AbstractListValue implements ContainerValueInterface {
-    private final Map<Value, Value> map;
+    /**
+     * Maps with more entries than this move them into a {@link PersistentMap} once they get copied, so that the copies
+     * share them
+     */
+    private static final int PERSISTENT_THRESHOLD = 32;
+
+    private Map<Value, Value> map;
+    /**
+     * Whether another map value uses {@link MapValue#map} too, so it has to be copied before changing it
+     */
+    private boolean shared = false;
 
     private MapValue() {
-        map = new HashMap<>();
+        map = new CompactMap();
     }
 
     public MapValue(List<Value> kvPairs) {
@@ -27,7 +36,7 @@ public class MapValue extends AbstractListValue implements ContainerValueInterfa
     public MapValue(Set<Value> keySet) {
         this();
         for (Value v : keySet) {
-            map.put(v, Value.NULL);
+            append(v);
         }
     }
 
@@ -49,7 +58,23 @@ public class MapValue extends AbstractListValue implements ContainerValueInterfa
 
     @Override
     public String getString() {
-        return "{" + map.entrySet().stream().map((p) -> p.getKey().getString() + ": " + p.getValue().getString()).collect(Collectors.joining(", ")) + "}";
+        StringBuilder sb = new StringBuilder();
+        appendTo(sb);
+        return sb.toString();
+    }
+
+    @Override
+    public void appendTo(StringBuilder sb) {
+        sb.append('{');
+        boolean first = true;
+        for (Map.Entry<Value, Value> entry : map.entrySet()) {
+            if (!first) sb.append(", ");
+            first = false;
+            entry.getKey().appendTo(sb);
+            sb.append(": ");
+            entry.getValue().appendTo(sb);
+        }
+        sb.append('}');
     }
 
     @Override
@@ -69,24 +94,43 @@ public class MapValue extends AbstractListValue implements ContainerValueInterfa
         return !map.isEmpty();
     }
 
+    /**
+     * Copy which shares the entries with this map until either of them changes. Large maps move their entries into a
+     * {@link PersistentMap} first, so that making the copy of them that is changed only copies a few of its nodes.
+     */
     @Override
     public Value clone() {
-        return new MapValue(map);
+        if (map.size() > PERSISTENT_THRESHOLD && !(map instanceof PersistentMap))
+            map = new PersistentMap(map);
+        MapValue copy = new MapValue(map);
+        copy.shared = shared = true;
+        return copy;
+    }
+
+    /**
+     * Copies the entries if they are shared, so that they can be changed
+     */
+    private void ownMap() {
+        if (shared) {
+            map = map instanceof PersistentMap persistent ? persistent.fork() : new CompactMap(map);
+            shared = false;
+        }
     }
 
     @Override
     public Value add(Value o) {
-        Map<Value, Value> newItems = new HashMap<>(map);
+        MapValue result = (MapValue) clone();
         if (o instanceof MapValue) {
-            newItems.putAll(((MapValue) o).map);
+            result.ownMap();
+            result.map.putAll(((MapValue) o).map);
         } else if (o instanceof AbstractListValue) {
             for (Value value : (AbstractListValue) o) {
-                newItems.put(value, Value.NULL);
+                result.append(value);
             }
         } else {
-            newItems.put(o, Value.NULL);
+            result.append(o);
         }
-        return MapValue.wrap(newItems);
+        return result;
     }
 
     @Override
@@ -105,6 +149,7 @@ public class MapValue extends AbstractListValue implements ContainerValueInterfa
     }
 
     public void put(Value v) {
+        ownMap();
         if (!(v instanceof ListValue pair)) {
             map.put(v, Value.NULL);
             return;
@@ -117,6 +162,7 @@ public class MapValue extends AbstractListValue implements ContainerValueInterfa
 
     @Override
     public void append(Value v) {
+        ownMap();
         map.put(v, Value.NULL);
     }
 
@@ -133,7 +179,11 @@ public class MapValue extends AbstractListValue implements ContainerValueInterfa
         return false;
     }
 
+    /**
+     * The entries of this map, which are no longer shared with any copies, so they can be changed
+     */
     public Map<Value, Value> getMap() {
+        ownMap();
         return map;
     }
 
@@ -169,12 +219,14 @@ public class MapValue extends AbstractListValue implements ContainerValueInterfa
 
     @Override
     public boolean delete(Value where) {
+        ownMap();
         Value ret = map.remove(where);
         return ret != null;
     }
 
     @Override
     public boolean put(Value key, Value value) {
+        ownMap();
         Value ret = map.put(key, value);
         return ret != null;
     }
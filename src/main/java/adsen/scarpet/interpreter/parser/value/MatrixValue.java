@@ -1,19 +1,39 @@
 package adsen.scarpet.interpreter.parser.value;
 
 import adsen.scarpet.interpreter.parser.exception.InternalExpressionException;
+import adsen.scarpet.interpreter.parser.util.LUDecomposition;
 import adsen.scarpet.interpreter.parser.util.Matrix;
+import adsen.scarpet.interpreter.parser.util.QRDecomposition;
+import adsen.scarpet.interpreter.parser.util.SparseMatrix;
 
 import java.util.Iterator;
 import java.util.List;
 
+/**
+ * A matrix, kept either dense in a {@link Matrix}, or as a {@link SparseMatrix}, only one of which is set. Operations
+ * between them pick what to do from which kinds they get, sparse ones only come out of those with sparse ones alone,
+ * and sparse ones only get made dense for what needs all of their values anyway, like solving.
+ */
 public class   MatrixValue extends Value implements ContainerValueInterface {
 
     private Matrix matrix;
+    private SparseMatrix sparse;
+    /**
+     * Decompositions of the matrix, made the first time they are needed and kept until it changes, which is checked
+     * with its modification count, as copies of this value share the matrix
+     */
+    private LUDecomposition lu;
+    private QRDecomposition qr;
+    private int decomposedAt;
 
     public MatrixValue(Matrix m) {
         this.matrix = m;
     }
 
+    public MatrixValue(SparseMatrix m) {
+        this.sparse = m;
+    }
+
     public MatrixValue(ListValue m) {
         int rows = m.length();
         int columns = m.items.get(0).length();
@@ -40,21 +60,76 @@ public class   MatrixValue extends Value implements ContainerValueInterface {
         this.matrix = new Matrix(mat);
     }
 
+    public boolean isSparse() {
+        return sparse != null;
+    }
+
+    /**
+     * The matrix, or a dense copy of it if it is sparse, which doesn't change along with it
+     */
     public Matrix getMatrix() {
-        return matrix;
+        return sparse != null ? sparse.toDense() : matrix;
+    }
+
+    /**
+     * @return The sparse matrix, or {@code null} if this one is dense
+     */
+    public SparseMatrix getSparseMatrix() {
+        return sparse;
+    }
+
+    private int modifications() {
+        return sparse != null ? sparse.modifications() : matrix.modifications();
+    }
+
+    /**
+     * Decomposition of the matrix, which has to be square, made again only if the matrix changed since the last one
+     */
+    public LUDecomposition decomposition() {
+        if (lu == null || decomposedAt != modifications()) {
+            clearDecompositions();
+            lu = new LUDecomposition(getMatrix());
+        }
+        return lu;
+    }
+
+    private QRDecomposition qrDecomposition() {
+        if (qr == null || decomposedAt != modifications()) {
+            clearDecompositions();
+            qr = new QRDecomposition(getMatrix());
+        }
+        return qr;
+    }
+
+    private void clearDecompositions() {
+        lu = null;
+        qr = null;
+        decomposedAt = modifications();
+    }
+
+    /**
+     * Finds {@code X} for which this matrix times {@code X} is {@code b}. Square matrices get solved exactly, ones
+     * with more rows than columns in the least squares sense.
+     *
+     * @param b Matrix with a column for each right hand side
+     */
+    public Matrix solve(Matrix b) {
+        if (rows() == columns()) return decomposition().solve(b);
+        if (rows() > columns()) return qrDecomposition().solve(b);
+        throw new InternalExpressionException("Cannot solve a system with fewer equations than unknowns");
     }
 
     public int rows() {
-        return matrix.N;
+        return sparse != null ? sparse.N : matrix.N;
     }
 
     public int columns() {
-        return matrix.M;
+        return sparse != null ? sparse.M : matrix.M;
     }
 
     @Override
     public String getString() {
-        return matrix.toString();
+        return sparse != null ? sparse.toString() : matrix.toString();
     }
 
     @Override
@@ -62,57 +137,75 @@ public class   MatrixValue extends Value implements ContainerValueInterface {
         return "matrix";
     }
 
+    /**
+     * A sparse matrix is true if it has any value which isn't 0. Dense ones keep what they always did, being true only if
+     * they are empty, which a matrix never is.
+     */
     @Override
     public boolean getBoolean() {
-        return matrix.isEmpty();
+        return sparse != null ? sparse.nonZeros() > 0 : matrix.isEmpty();
+    }
+
+    /**
+     * The other operand of an operation with a matrix, if it is a matrix or a vector
+     */
+    private static MatrixValue matrixOperand(Value o) {
+        if (o instanceof MatrixValue) return (MatrixValue) o;
+        if (o instanceof ListValue && ((ListValue) o).canBeVector()) return ((ListValue) o).toVector();
+        return null;
     }
 
     @Override
     public Value add(Value o) {
-        if (o instanceof MatrixValue) {
-            return new MatrixValue(matrix.add(((MatrixValue) o).matrix));
-        }
-        if (o instanceof ListValue && ((ListValue) o).canBeVector()) {
-            return new MatrixValue(matrix.add(((ListValue) o).toVector().matrix));
+        MatrixValue other = matrixOperand(o);
+        if (other != null) {
+            if (sparse != null && other.sparse != null) return new MatrixValue(sparse.add(other.sparse));
+            if (sparse != null) return new MatrixValue(sparse.addTo(other.matrix, 1.0D));
+            if (other.sparse != null) return new MatrixValue(other.sparse.addTo(matrix, 1.0D));
+            return new MatrixValue(matrix.add(other.matrix));
         }
         throw new InternalExpressionException("Cannot add non-matrix or vector value to a matrix");
     }
 
     @Override
     public Value subtract(Value o) {
-        if (o instanceof MatrixValue) {
-            return new MatrixValue(matrix.subtract(((MatrixValue) o).matrix));
-        }
-        if (o instanceof ListValue && ((ListValue) o).canBeVector()) {
-            return new MatrixValue(matrix.subtract(((ListValue) o).toVector().matrix));
+        MatrixValue other = matrixOperand(o);
+        if (other != null) {
+            if (sparse != null && other.sparse != null) return new MatrixValue(sparse.subtract(other.sparse));
+            if (sparse != null) return new MatrixValue(sparse.addTo(other.matrix.multiply(-1.0D), 1.0D));
+            if (other.sparse != null) return new MatrixValue(other.sparse.addTo(matrix, -1.0D));
+            return new MatrixValue(matrix.subtract(other.matrix));
         }
         throw new InternalExpressionException("Cannot subtract non-matrix or vector value from a matrix");
     }
 
     @Override
     public Value multiply(Value o) {
-        if (o instanceof MatrixValue) {
-            return new MatrixValue(matrix.multiply(((MatrixValue) o).matrix));
-        }
-        if (o instanceof ListValue && ((ListValue) o).canBeVector()) {
-            return new MatrixValue(matrix.multiply(((ListValue) o).toVector().matrix));
+        MatrixValue other = matrixOperand(o);
+        if (other != null) {
+            if (sparse != null && other.sparse != null) return new MatrixValue(sparse.multiply(other.sparse));
+            if (sparse != null) return new MatrixValue(sparse.multiply(other.matrix));
+            if (other.sparse != null) return new MatrixValue(other.sparse.multiplyLeft(matrix));
+            return new MatrixValue(matrix.multiply(other.matrix));
         }
         if (o instanceof NumericValue) {
-            return new MatrixValue(matrix.multiply(((NumericValue) o).getDouble()));
+            double d = ((NumericValue) o).getDouble();
+            return sparse != null ? new MatrixValue(sparse.multiply(d)) : new MatrixValue(matrix.multiply(d));
         }
         throw new InternalExpressionException("Cannot multiply non-matrix, vector or scalar value with a matrix");
     }
 
     @Override
     public Value divide(Value o) {//todo getting inverses to divide a number by this
-        if (o instanceof MatrixValue) {
-            return new MatrixValue(matrix.divide(((MatrixValue) o).matrix));
-        }
-        if (o instanceof ListValue && ((ListValue) o).canBeVector()) {
-            return new MatrixValue(matrix.divide(((ListValue) o).toVector().matrix));
+        MatrixValue other = matrixOperand(o);
+        if (other != null) {
+            if (!(rows() == columns() && other.rows() == other.columns() && columns() == other.columns()))
+                throw new ArithmeticException("When dividing, both matrices must be square matrices of the same dimension");
+            return new MatrixValue(other.decomposition().solveRight(getMatrix()));
         }
         if (o instanceof NumericValue) {
-            return new MatrixValue(matrix.multiply(1.0D / ((NumericValue) o).getDouble()));
+            double d = 1.0D / ((NumericValue) o).getDouble();
+            return sparse != null ? new MatrixValue(sparse.multiply(d)) : new MatrixValue(matrix.multiply(d));
         }
         throw new InternalExpressionException("Cannot divide non-matrix, vector or scalar value by a matrix");
     }
@@ -122,6 +215,10 @@ public class   MatrixValue extends Value implements ContainerValueInterface {
         if (!(other instanceof MatrixValue)) return false;
         MatrixValue mo = (MatrixValue) other;
         if (mo.rows() != rows() || mo.columns() != columns()) return false;
+        if (sparse != null)
+            return mo.sparse != null ? sparse.valuesEqual(mo.sparse) : sparse.valuesEqual(mo.matrix);
+        if (mo.sparse != null)
+            return mo.sparse.valuesEqual(matrix);
         Iterator<Double> oit = mo.matrix.iterator();
         for (Double aDouble : matrix)
             if (!aDouble.equals(oit.next())) return false;
@@ -141,7 +238,9 @@ public class   MatrixValue extends Value implements ContainerValueInterface {
         if (!(value instanceof NumericValue))
             throw new InternalExpressionException("Matrices must have numeric values");
 
-        double oldValue = matrix.set((int) pair.items.get(0).readInteger(), (int) pair.items.get(1).readInteger(), value.readNumber());
+        int x = (int) pair.items.get(0).readInteger();
+        int y = (int) pair.items.get(1).readInteger();
+        double oldValue = sparse != null ? sparse.set(x, y, value.readNumber()) : matrix.set(x, y, value.readNumber());
 
         return oldValue == value.readNumber();
     }
@@ -155,7 +254,9 @@ public class   MatrixValue extends Value implements ContainerValueInterface {
         if (pair.length() != 2 || !pair.canBeVector()) {
             throw new InternalExpressionException("Must access a matrix's content with a pair of numeric coordinates");
         }
-        return new NumericValue(matrix.get((int) pair.items.get(0).readInteger(), (int) pair.items.get(1).readInteger()));
+        int x = (int) pair.items.get(0).readInteger();
+        int y = (int) pair.items.get(1).readInteger();
+        return new NumericValue(sparse != null ? sparse.get(x, y) : matrix.get(x, y));
     }
 
     @Override
@@ -169,7 +270,7 @@ public class   MatrixValue extends Value implements ContainerValueInterface {
         }
         int x = (int) pair.items.get(0).readInteger();
         int y = (int) pair.items.get(1).readInteger();
-        return 0 < x && rows() > x && 0 < y && y > columns();
+        return x >= 0 && x < columns() && y >= 0 && y < rows();
     }
 
     @Override
@@ -16,6 +16,11 @@ public class NullValue extends NumericValue {
         return "null";
     }
 
+    @Override
+    public void appendTo(StringBuilder sb) {
+        sb.append(getString());
+    }
+
     @Override
     public String getPrettyString() {
         return "null";
@@ -36,6 +41,16 @@ public class NullValue extends NumericValue {
         return o instanceof NullValue;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof NullValue;
+    }
+
+    @Override
+    public int hashCode() {
+        return 0;
+    }
+
     @Override
     public int compareTo(Value o) {
         return o instanceof NullValue ? 0 : -1;
@@ -0,0 +1,197 @@
+package adsen.scarpet.interpreter.parser.value;
+
+import adsen.scarpet.interpreter.parser.util.Kernels;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Items of a {@link ListValue} which are all numbers, kept as {@code double}s in one array, which is all a
+ * {@link NumericValue} holds anyway. Numbers are only made from them as they get read, and arithmetic between whole
+ * lists goes straight through the arrays.
+ * <p>
+ * Only plain numbers fit, so {@code null} and booleans don't, and the list has to be moved into a regular one
+ * before anything else goes in, see {@link NumericList#fits(Value)}.
+ */
+final class NumericList extends AbstractList<Value> implements RandomAccess {
+    private double[] values;
+    private int size;
+
+    NumericList(int capacity) {
+        values = new double[Math.max(capacity, 4)];
+    }
+
+    private NumericList(double[] values, int size) {
+        this.values = values;
+        this.size = size;
+    }
+
+    /**
+     * Whether the value can go into a numeric list
+     */
+    static boolean fits(Value value) {
+        return value != null && value.getClass() == NumericValue.class;
+    }
+
+    /**
+     * @return A numeric list with the given items, or {@code null} if some of them aren't numbers
+     */
+    static NumericList of(List<? extends Value> items) {
+        if (items instanceof NumericList numbers)
+            return numbers.copy();
+        double[] values = new double[items.size()];
+        for (int i = 0; i < values.length; i++) {
+            Value item = items.get(i);
+            if (!fits(item)) return null;
+            values[i] = ((NumericValue) item).getDouble();
+        }
+        return new NumericList(values, values.length);
+    }
+
+    NumericList copy() {
+        return new NumericList(Arrays.copyOf(values, Math.max(size, 4)), size);
+    }
+
+    NumericList slice(int from, int to) {
+        Objects.checkFromToIndex(from, to, size);
+        return new NumericList(Arrays.copyOfRange(values, from, Math.max(to, from + 4)), to - from);
+    }
+
+    double getDouble(int index) {
+        Objects.checkIndex(index, size);
+        return values[index];
+    }
+
+    /**
+     * Applies the operation to each pair of items of the two lists, which have to be of the same size
+     */
+    NumericList apply(Operation operation, NumericList other) {
+        double[] result = new double[Math.max(size, 4)];
+        operation.apply(values, other.values, result, size);
+        return new NumericList(result, size);
+    }
+
+    /**
+     * Applies the operation to each item of the list, with the given number as the second operand
+     */
+    NumericList apply(Operation operation, double operand) {
+        double[] result = new double[Math.max(size, 4)];
+        operation.apply(values, operand, result, size);
+        return new NumericList(result, size);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Value get(int index) {
+        return NumericValue.of(getDouble(index));
+    }
+
+    @Override
+    public Value set(int index, Value value) {
+        Value old = get(index);
+        values[index] = ((NumericValue) checkFits(value)).getDouble();
+        return old;
+    }
+
+    @Override
+    public boolean add(Value value) {
+        add(size, value);
+        return true;
+    }
+
+    @Override
+    public void add(int index, Value value) {
+        Objects.checkIndex(index, size + 1);
+        double d = ((NumericValue) checkFits(value)).getDouble();
+        if (size == values.length)
+            values = Arrays.copyOf(values, Math.max(size * 2, 4));
+        System.arraycopy(values, index, values, index + 1, size - index);
+        values[index] = d;
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public Value remove(int index) {
+        Value old = get(index);
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        size--;
+        modCount++;
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+        modCount++;
+    }
+
+    private static Value checkFits(Value value) {
+        if (!fits(value))
+            throw new IllegalArgumentException("Only numbers go in a numeric list, not " + value);
+        return value;
+    }
+
+    /**
+     * Arithmetic done on each item of a list, by whichever {@link Kernels} are in use. The results are the same as
+     * those of doing it with {@link NumericValue}s, which only use integer arithmetic when that gives the same result
+     * anyway.
+     */
+    enum Operation {
+        ADD {
+            @Override
+            void apply(double[] a, double[] b, double[] result, int length) {
+                Kernels.get().add(a, b, result, length);
+            }
+
+            @Override
+            void apply(double[] a, double b, double[] result, int length) {
+                Kernels.get().add(a, b, result, length);
+            }
+        },
+        SUBTRACT {
+            @Override
+            void apply(double[] a, double[] b, double[] result, int length) {
+                Kernels.get().subtract(a, b, result, length);
+            }
+
+            @Override
+            void apply(double[] a, double b, double[] result, int length) {
+                Kernels.get().subtract(a, b, result, length);
+            }
+        },
+        MULTIPLY {
+            @Override
+            void apply(double[] a, double[] b, double[] result, int length) {
+                Kernels.get().multiply(a, b, result, length);
+            }
+
+            @Override
+            void apply(double[] a, double b, double[] result, int length) {
+                Kernels.get().multiply(a, b, result, length);
+            }
+        },
+        DIVIDE {
+            @Override
+            void apply(double[] a, double[] b, double[] result, int length) {
+                Kernels.get().divide(a, b, result, length);
+            }
+
+            @Override
+            void apply(double[] a, double b, double[] result, int length) {
+                Kernels.get().divide(a, b, result, length);
+            }
+        };
+
+        abstract void apply(double[] a, double[] b, double[] result, int length);
+
+        abstract void apply(double[] a, double b, double[] result, int length);
+    }
+}
@@ -22,10 +22,42 @@ public class NumericValue extends Value {
 
     final static double epsilon = 1024 * Double.MIN_VALUE;
 
-    private Double value;
+    /**
+     * Shared instances of the integers from {@link Cache#LOW} to {@link Cache#HIGH}, given out by
+     * {@link NumericValue#of(double)}. They are in their own class, as {@link Value} needs some of them before this
+     * class is done initialising.
+     */
+    private static final class Cache {
+        static final int LOW = -128;
+        static final int HIGH = 1024;
+        static final NumericValue[] values = new NumericValue[HIGH - LOW + 1];
+
+        static {
+            for (int i = 0; i < values.length; i++)
+                values[i] = (NumericValue) new NumericValue((long) (i + LOW)).share();
+        }
+    }
+
+    /**
+     * Largest integer up to which every integer is exactly a double. Doubles further from zero than that may well have
+     * been rounded, so they stay doubles even when they are whole, and get printed the way doubles are.
+     */
+    private static final long MAX_EXACT = 1L << 53;
+
+    private final double value;
+    /**
+     * Whether the number is an exact integer, in which case {@link NumericValue#longValue} is its value and integer
+     * arithmetic is done with that instead. Numbers made from a {@code long} always are, numbers made from a
+     * {@code double} only if it's whole and no further from zero than {@link NumericValue#MAX_EXACT}.
+     */
+    private final boolean integer;
+    private final long longValue;
 
     public NumericValue(double value) {
         this.value = value==0 ? 0D : value;//to get rid of -0 issue
+        long l = (long) value;
+        this.integer = l == value && l >= -MAX_EXACT && l <= MAX_EXACT;
+        this.longValue = l;
     }
 
     public NumericValue(String value) {
@@ -34,6 +66,8 @@ public class NumericValue extends Value {
 
     public NumericValue(long value) {
         this.value = (double) value;
+        this.integer = true;
+        this.longValue = value;
     }
 
     public NumericValue(boolean boolval) {
@@ -54,6 +88,23 @@ public class NumericValue extends Value {
         return ((NumericValue) v1);
     }
 
+    /**
+     * Number with the given value, which is a shared instance for small integers. Use the constructor instead for
+     * anything that's going to be bound to a variable straight away.
+     */
+    public static NumericValue of(double value) {
+        int i = (int) value;
+        if (i == value && i >= Cache.LOW && i <= Cache.HIGH)
+            return Cache.values[i - Cache.LOW];
+        return new NumericValue(value);
+    }
+
+    public static NumericValue of(long value) {
+        if (value >= Cache.LOW && value <= Cache.HIGH)
+            return Cache.values[(int) value - Cache.LOW];
+        return new NumericValue(value);
+    }
+
     public static <T extends Number> Value of(T value)
     {
         if (value == null) return Value.NULL;
@@ -63,16 +114,76 @@ public class NumericValue extends Value {
     }
     @Override
     public String getString() {
-        try {
-            return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
-        } catch (NumberFormatException exc) {
-            throw new ArithmeticException("Incorrect number format for " + value);
+        if (integer)
+            return Long.toString(longValue);
+        StringBuilder sb = new StringBuilder(24);
+        appendDouble(sb, value);
+        return sb.toString();
+    }
+
+    @Override
+    public void appendTo(StringBuilder sb) {
+        if (integer) {
+            sb.append(longValue);
+        } else {
+            appendDouble(sb, value);
+        }
+    }
+
+    /**
+     * Appends the number in plain notation without trailing zeros, the same as
+     * {@code BigDecimal.valueOf(d).stripTrailingZeros().toPlainString()}. The digits are the shortest ones which read
+     * back as the same double, as {@link StringBuilder#append(double)} gives them, and they get moved into place in
+     * the builder instead of going through a {@link BigDecimal}.
+     */
+    private static void appendDouble(StringBuilder sb, double d) {
+        if (!Double.isFinite(d))
+            throw new ArithmeticException("Incorrect number format for " + d);
+        int start = sb.length();
+        sb.append(d);
+        int digits = sb.charAt(start) == '-' ? start + 1 : start;
+        int exponentAt = sb.indexOf("E", digits);
+        if (exponentAt < 0) { // already plain, with at least one digit after the point
+            int end = sb.length();
+            while (sb.charAt(end - 1) == '0')
+                end--;
+            if (sb.charAt(end - 1) == '.')
+                end--;
+            sb.setLength(end);
+            return;
+        }
+        // d.dddE[-]n, with a single non zero digit before the point
+        int exponent = Integer.parseInt(sb, exponentAt + 1, sb.length(), 10);
+        sb.setLength(exponentAt);
+        sb.deleteCharAt(digits + 1);
+        int end = sb.length();
+        while (end > digits + 1 && sb.charAt(end - 1) == '0')
+            end--;
+        sb.setLength(end);
+        int count = end - digits;
+        int point = exponent + 1; // how many digits come before the point
+        if (point <= 0) {
+            int shift = 2 - point; // "0." and the zeros after the point go before the digits
+            sb.setLength(end + shift);
+            for (int i = end - 1; i >= digits; i--)
+                sb.setCharAt(i + shift, sb.charAt(i));
+            sb.setCharAt(digits, '0');
+            sb.setCharAt(digits + 1, '.');
+            for (int i = digits + 2; i < digits + shift; i++)
+                sb.setCharAt(i, '0');
+        } else if (point >= count) {
+            for (int i = count; i < point; i++)
+                sb.append('0');
+        } else {
+            sb.insert(digits + point, '.');
         }
     }
 
     @Override
     public String getPrettyString() {
-        if (getDouble() == (double) getLong()) {
+        if (integer) {
+            return Long.toString(longValue);
+        } else if (getDouble() == (double) getLong()) {
             return Long.toString(getLong());
         } else {
             return String.format("%.3f..", getDouble());
@@ -86,7 +197,7 @@ public class NumericValue extends Value {
 
     @Override
     public boolean getBoolean() {
-        return value != null && abs(value) > epsilon;
+        return abs(value) > epsilon;
     }
 
     public double getDouble() {
@@ -94,29 +205,54 @@ public class NumericValue extends Value {
     }
 
     public long getLong() {
-        return (long) (value + epsilon);
+        return integer ? longValue : (long) (value + epsilon);
+    }
+
+    /**
+     * Whether the number is an integer which is worked with as a {@code long}, see {@link NumericValue#getLong()}
+     */
+    public boolean isInteger() {
+        return integer;
     }
 
     @Override
     public Value add(Value v) {
-        if (v instanceof NumericValue) {
-            return new NumericValue(getDouble() + ((NumericValue) v).getDouble());
+        if (v instanceof NumericValue n) {
+            if (integer && n.integer) {
+                try {
+                    return of(Math.addExact(longValue, n.longValue));
+                } catch (ArithmeticException overflow) { // goes on as a double
+                }
+            }
+            return of(value + n.value);
         }
         return super.add(v);
     }
 
     @Override
     public Value subtract(Value v) {
-        if (v instanceof NumericValue) {
-            return new NumericValue(getDouble() - (((NumericValue) v).getDouble()));
+        if (v instanceof NumericValue n) {
+            if (integer && n.integer) {
+                try {
+                    return of(Math.subtractExact(longValue, n.longValue));
+                } catch (ArithmeticException overflow) { // goes on as a double
+                }
+            }
+            return of(value - n.value);
         }
         return super.subtract(v);
     }
 
     @Override
     public Value multiply(Value v) {
-        if (v instanceof NumericValue) {
-            return new NumericValue(getDouble() * ((NumericValue) v).getDouble());
+        if (v instanceof NumericValue n) {
+            if (integer && n.integer) {
+                try {
+                    return of(Math.multiplyExact(longValue, n.longValue));
+                } catch (ArithmeticException overflow) { // goes on as a double
+                }
+            }
+            return of(value * n.value);
         }
         if (v instanceof ListValue) {
             return v.multiply(this);
@@ -126,12 +262,25 @@ public class NumericValue extends Value {
 
     @Override
     public Value divide(Value v) {
-        if (v instanceof NumericValue) {
-            return new NumericValue(getDouble() / ((NumericValue) v).getDouble());
+        if (v instanceof NumericValue n) {
+            if (integer && n.integer && n.longValue != 0 && longValue % n.longValue == 0
+                    && !(longValue == Long.MIN_VALUE && n.longValue == -1)) // the only quotient that overflows
+                return of(longValue / n.longValue);
+            return of(value / n.value);
         }
         return super.divide(v);
     }
 
+    public NumericValue modulo(NumericValue n) {
+        if (integer && n.integer && n.longValue != 0)
+            return of(longValue % n.longValue);
+        return of(value % n.value);
+    }
+
+    public NumericValue negate() {
+        return integer && longValue != Long.MIN_VALUE ? of(-longValue) : of(-value);
+    }
+
     @Override
     public Value clone() {
         return new NumericValue(value);
@@ -142,26 +291,53 @@ public class NumericValue extends Value {
         if (o instanceof NullValue) {
             return -o.compareTo(this);
         }
-        if (o instanceof NumericValue) {
-            return value.compareTo(((NumericValue) o).getDouble());
+        if (o instanceof NumericValue n) {
+            if (integer && n.integer)
+                return Long.compare(longValue, n.longValue);
+            return Double.compare(value, n.value);
         }
         return getString().compareTo(o.getString());
     }
 
+    /**
+     * Whether two numbers are equal as far as scarpet is concerned, i.e. they differ by no more than epsilon
+     */
+    public static boolean areEqual(double a, double b) {
+        return !(abs(a - b) > epsilon);
+    }
+
     @Override
     public boolean equals(Value o) {
         if (o instanceof NullValue) {
             return o.equals(this);
         }
-        if (o instanceof NumericValue) {
-            return !this.subtract(o).getBoolean();
+        if (o instanceof NumericValue n) {
+            if (integer && n.integer)
+                return longValue == n.longValue;
+            return areEqual(value, n.value);
         }
         return super.equals(o);
     }
 
+    /**
+     * Integers are never equal to doubles here, as integers past {@link NumericValue#MAX_EXACT} can be the same
+     * double without being equal to each other, and doubles within it which are whole are integers anyway
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof NumericValue n) || o instanceof NullValue || integer != n.integer)
+            return false;
+        return integer ? longValue == n.longValue : Double.compare(value, n.value) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return integer ? Long.hashCode(longValue) : Double.hashCode(value);
+    }
+
     @Override
     public int length() {
-        return Integer.toString(value.intValue()).length();
+        return Integer.toString((int) value).length();
     }
 
     @Override
@@ -0,0 +1,334 @@
+package adsen.scarpet.interpreter.parser.value;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Entries of a {@link MapValue} kept in a hash array mapped trie. Each node takes 5 bits of the hash of a key, and only
+ * has room for the keys it actually has. Nodes never change once they are in the trie, so copies made with
+ * {@link PersistentMap#fork()} share all of them, and adding, changing or removing a key only copies the nodes on
+ * the way to it, which takes O(log32 n).
+ */
+final class PersistentMap extends AbstractMap<Value, Value> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final Object NOT_FOUND = new Object();
+
+    private Node root;
+    private int size;
+
+    PersistentMap() {
+        clear();
+    }
+
+    PersistentMap(Map<Value, Value> entries) {
+        this();
+        putAll(entries);
+    }
+
+    private PersistentMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Copy of this map, which shares all of its nodes with it
+     */
+    PersistentMap fork() {
+        return new PersistentMap(root, size);
+    }
+
+    private static int hash(Object key) {
+        return key == null ? 0 : key.hashCode();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Value get(Object key) {
+        Object value = root.find(0, hash(key), key);
+        return value == NOT_FOUND ? null : (Value) value;
+    }
+
+    @Override
+    public Value getOrDefault(Object key, Value defaultValue) {
+        Object value = root.find(0, hash(key), key);
+        return value == NOT_FOUND ? defaultValue : (Value) value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return root.find(0, hash(key), key) != NOT_FOUND;
+    }
+
+    @Override
+    public Value put(Value key, Value value) {
+        Objects.requireNonNull(key); // null keys would look like nodes further down
+        Change change = new Change();
+        root = root.assoc(0, hash(key), key, value, change);
+        if (change.added) size++;
+        return change.old;
+    }
+
+    @Override
+    public Value remove(Object key) {
+        Change change = new Change();
+        Node node = root.without(0, hash(key), key, change);
+        root = node == null ? Node.EMPTY : node;
+        if (change.removed) size--;
+        return change.old;
+    }
+
+    @Override
+    public void clear() {
+        root = Node.EMPTY;
+        size = 0;
+    }
+
+    @Override
+    public Set<Map.Entry<Value, Value>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<Value, Value>> iterator() {
+                return new EntryIterator(root);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * What a change to the trie did, as the nodes only give back the new node
+     */
+    private static final class Change {
+        Value old = null;
+        boolean added = false;
+        boolean removed = false;
+    }
+
+    /**
+     * Node of the trie. Its array has a key and a value for each of its entries, or {@code null} and the node further
+     * down for the keys sharing the same 5 bits of hash at this level.
+     */
+    private static class Node {
+        static final Node EMPTY = new Node(0, new Object[0]);
+
+        final int bitmap;
+        final Object[] array;
+
+        Node(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        Object find(int shift, int hash, Object key) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0)
+                return NOT_FOUND;
+            int i = 2 * Integer.bitCount(bitmap & (bit - 1));
+            Object k = array[i];
+            if (k == null)
+                return ((Node) array[i + 1]).find(shift + BITS, hash, key);
+            return k.equals(key) ? array[i + 1] : NOT_FOUND;
+        }
+
+        Node assoc(int shift, int hash, Value key, Value value, Change change) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int i = 2 * Integer.bitCount(bitmap & (bit - 1));
+            if ((bitmap & bit) == 0) {
+                change.added = true;
+                Object[] copy = new Object[array.length + 2];
+                System.arraycopy(array, 0, copy, 0, i);
+                copy[i] = key;
+                copy[i + 1] = value;
+                System.arraycopy(array, i, copy, i + 2, array.length - i);
+                return new Node(bitmap | bit, copy);
+            }
+            Object k = array[i];
+            Object v = array[i + 1];
+            Object replacement;
+            if (k == null) {
+                Node node = ((Node) v).assoc(shift + BITS, hash, key, value, change);
+                if (node == v) return this;
+                replacement = node;
+            } else if (k.equals(key)) {
+                change.old = (Value) v;
+                if (v == value) return this;
+                replacement = value;
+            } else {
+                change.added = true;
+                Object[] copy = array.clone();
+                copy[i] = null;
+                copy[i + 1] = pair(shift + BITS, (Value) k, (Value) v, hash, key, value);
+                return new Node(bitmap, copy);
+            }
+            Object[] copy = array.clone();
+            copy[i + 1] = replacement;
+            return new Node(bitmap, copy);
+        }
+
+        /**
+         * @return The node without the key, or {@code null} if there's nothing left in it
+         */
+        Node without(int shift, int hash, Object key, Change change) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0)
+                return this;
+            int i = 2 * Integer.bitCount(bitmap & (bit - 1));
+            Object k = array[i];
+            if (k == null) {
+                Node node = ((Node) array[i + 1]).without(shift + BITS, hash, key, change);
+                if (node == array[i + 1]) return this;
+                if (node != null) {
+                    Object[] copy = array.clone();
+                    copy[i + 1] = node;
+                    return new Node(bitmap, copy);
+                }
+            } else if (k.equals(key)) {
+                change.old = (Value) array[i + 1];
+                change.removed = true;
+            } else {
+                return this;
+            }
+            if (bitmap == bit)
+                return null;
+            Object[] copy = new Object[array.length - 2];
+            System.arraycopy(array, 0, copy, 0, i);
+            System.arraycopy(array, i + 2, copy, i, array.length - i - 2);
+            return new Node(bitmap ^ bit, copy);
+        }
+
+        /**
+         * Node with two keys, which have the same bits of hash up to this level
+         */
+        private static Node pair(int shift, Value k1, Value v1, int h2, Value k2, Value v2) {
+            int h1 = hash(k1);
+            if (h1 == h2)
+                return new Collision(h1, new Object[]{k1, v1, k2, v2});
+            Change ignored = new Change();
+            return EMPTY.assoc(shift, h1, k1, v1, ignored).assoc(shift, h2, k2, v2, ignored);
+        }
+    }
+
+    /**
+     * Keys whose whole hashes are the same, which are all kept in the array one after another
+     */
+    private static final class Collision extends Node {
+        final int hash;
+
+        Collision(int hash, Object[] array) {
+            super(0, array);
+            this.hash = hash;
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2)
+                if (array[i].equals(key)) return i;
+            return -1;
+        }
+
+        @Override
+        Object find(int shift, int hash, Object key) {
+            if (hash != this.hash)
+                return NOT_FOUND;
+            int i = indexOf(key);
+            return i < 0 ? NOT_FOUND : array[i + 1];
+        }
+
+        @Override
+        Node assoc(int shift, int hash, Value key, Value value, Change change) {
+            if (hash != this.hash) // goes under a node which tells them apart
+                return new Node(1 << ((this.hash >>> shift) & MASK), new Object[]{null, this}).assoc(shift, hash, key, value, change);
+            int i = indexOf(key);
+            if (i < 0) {
+                change.added = true;
+                Object[] copy = Arrays.copyOf(array, array.length + 2);
+                copy[array.length] = key;
+                copy[array.length + 1] = value;
+                return new Collision(hash, copy);
+            }
+            change.old = (Value) array[i + 1];
+            if (array[i + 1] == value) return this;
+            Object[] copy = array.clone();
+            copy[i + 1] = value;
+            return new Collision(hash, copy);
+        }
+
+        @Override
+        Node without(int shift, int hash, Object key, Change change) {
+            int i = hash == this.hash ? indexOf(key) : -1;
+            if (i < 0)
+                return this;
+            change.old = (Value) array[i + 1];
+            change.removed = true;
+            if (array.length == 2)
+                return null;
+            Object[] copy = new Object[array.length - 2];
+            System.arraycopy(array, 0, copy, 0, i);
+            System.arraycopy(array, i + 2, copy, i, array.length - i - 2);
+            return new Collision(hash, copy);
+        }
+    }
+
+    /**
+     * Goes through the trie depth first, keeping the arrays of the nodes it's in on a stack
+     */
+    private static final class EntryIterator implements Iterator<Map.Entry<Value, Value>> {
+        private final Object[][] arrays = new Object[8][];
+        private final int[] positions = new int[8];
+        private int depth = 0;
+        private Map.Entry<Value, Value> next;
+
+        EntryIterator(Node root) {
+            arrays[0] = root.array;
+            advance();
+        }
+
+        private void advance() {
+            while (depth >= 0) {
+                Object[] array = arrays[depth];
+                int i = positions[depth];
+                if (i >= array.length) {
+                    depth--;
+                    continue;
+                }
+                positions[depth] = i + 2;
+                if (array[i] == null) {
+                    depth++;
+                    arrays[depth] = ((Node) array[i + 1]).array;
+                    positions[depth] = 0;
+                } else {
+                    next = new SimpleImmutableEntry<>((Value) array[i], (Value) array[i + 1]);
+                    return;
+                }
+            }
+            next = null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<Value, Value> next() {
+            if (next == null)
+                throw new NoSuchElementException();
+            Map.Entry<Value, Value> entry = next;
+            advance();
+            return entry;
+        }
+    }
+}
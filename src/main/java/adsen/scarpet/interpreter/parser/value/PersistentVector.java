@@ -0,0 +1,328 @@
+package adsen.scarpet.interpreter.parser.value;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Items of a large {@link ListValue}, kept in a trie of 32 wide nodes with the last items in a separate tail. Copies
+ * made with {@link PersistentVector#fork()} share all of their nodes, and changing an item only copies the nodes on the
+ * way to it that are shared. That makes copies and slices take constant or logarithmic time, as do changing, adding or
+ * removing an item at either end. Removing or inserting items anywhere else rebuilds the vector.
+ * <p>
+ * Each node keeps the edit token of the vector that made it in its last slot. A vector gets a new token whenever it is
+ * forked, so nodes with its current token are its own and get changed in place, and all the others are copied first.
+ */
+final class PersistentVector extends AbstractList<Value> implements RandomAccess {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+    /**
+     * Slot of each node with the edit token of the vector it belongs to
+     */
+    private static final int EDIT = WIDTH;
+
+    /**
+     * Trie with the items before {@link PersistentVector#tailOffset()}. It may also hold items past them, left over
+     * from before the vector was shortened, which are never read and get replaced as it grows again.
+     */
+    private Object[] root;
+    /**
+     * How far the index of an item needs shifting to get its slot in the root
+     */
+    private int shift;
+    /**
+     * Items from {@link PersistentVector#tailOffset()} up to {@link PersistentVector#count}
+     */
+    private Object[] tail;
+    /**
+     * Token of the nodes which no other vector uses, so they can be written to directly
+     */
+    private Object edit = new Object();
+    /**
+     * Number of items in the trie and the tail together
+     */
+    private int count;
+    /**
+     * Index of the first item of the vector, the ones before it having been sliced or removed off the front
+     */
+    private int start;
+    /**
+     * Counts every change, including ones made in place, so iterators know when the leaf they have may be out of date
+     */
+    private int version;
+
+    PersistentVector() {
+        clear();
+    }
+
+    PersistentVector(Collection<? extends Value> items) {
+        this();
+        for (Value item : items)
+            add(item);
+    }
+
+    private PersistentVector(PersistentVector other) {
+        root = other.root;
+        shift = other.shift;
+        tail = other.tail;
+        count = other.count;
+        start = other.start;
+    }
+
+    /**
+     * Copy of this vector, which shares all of its nodes with it. Neither of them owns those nodes anymore.
+     */
+    PersistentVector fork() {
+        edit = new Object();
+        return new PersistentVector(this);
+    }
+
+    /**
+     * Copy of the items from {@code from} up to {@code to}, sharing all of its nodes with this vector
+     */
+    PersistentVector slice(int from, int to) {
+        Objects.checkFromToIndex(from, to, size());
+        PersistentVector slice = fork();
+        slice.truncate(start + to);
+        slice.start = start + from;
+        return slice;
+    }
+
+    private int tailOffset() {
+        return count == 0 ? 0 : ((count - 1) >>> BITS) << BITS;
+    }
+
+    private Object[] newNode() {
+        Object[] node = new Object[WIDTH + 1];
+        node[EDIT] = edit;
+        return node;
+    }
+
+    /**
+     * The node itself if this vector owns it, otherwise a copy of it which it does
+     */
+    private Object[] editable(Object[] node) {
+        if (node[EDIT] == edit)
+            return node;
+        Object[] copy = node.clone();
+        copy[EDIT] = edit;
+        return copy;
+    }
+
+    /**
+     * The node of the trie with the item at the given index
+     */
+    private Object[] leafFor(int index) {
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS)
+            node = (Object[]) node[(index >>> level) & MASK];
+        return node;
+    }
+
+    @Override
+    public int size() {
+        return count - start;
+    }
+
+    @Override
+    public Value get(int index) {
+        Objects.checkIndex(index, size());
+        int i = start + index;
+        int tailOffset = tailOffset();
+        if (i >= tailOffset)
+            return (Value) tail[i - tailOffset];
+        return (Value) leafFor(i)[i & MASK];
+    }
+
+    @Override
+    public Value set(int index, Value value) {
+        Objects.checkIndex(index, size());
+        int i = start + index;
+        int tailOffset = tailOffset();
+        version++;
+        if (i >= tailOffset) {
+            tail = editable(tail);
+            Value old = (Value) tail[i - tailOffset];
+            tail[i - tailOffset] = value;
+            return old;
+        }
+        root = editable(root);
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            int slot = (i >>> level) & MASK;
+            Object[] child = editable((Object[]) node[slot]);
+            node[slot] = child;
+            node = child;
+        }
+        Value old = (Value) node[i & MASK];
+        node[i & MASK] = value;
+        return old;
+    }
+
+    @Override
+    public boolean add(Value value) {
+        int tailSize = count - tailOffset();
+        if (tailSize < WIDTH) {
+            tail = editable(tail);
+            tail[tailSize] = value;
+        } else { // tail is full, it goes into the trie and a new one is started
+            if ((count >>> BITS) > (1 << shift)) { // no room left in the root
+                Object[] newRoot = newNode();
+                newRoot[0] = root;
+                newRoot[1] = newPath(shift, tail);
+                root = newRoot;
+                shift += BITS;
+            } else {
+                root = pushTail(shift, root, tail);
+            }
+            tail = newNode();
+            tail[0] = value;
+        }
+        count++;
+        version++;
+        modCount++;
+        return true;
+    }
+
+    private Object[] pushTail(int level, Object[] parent, Object[] tailNode) {
+        int slot = ((count - 1) >>> level) & MASK;
+        Object[] node = editable(parent);
+        if (level == BITS) {
+            node[slot] = tailNode;
+        } else {
+            Object[] child = (Object[]) parent[slot];
+            node[slot] = child == null ? newPath(level - BITS, tailNode) : pushTail(level - BITS, child, tailNode);
+        }
+        return node;
+    }
+
+    private Object[] newPath(int level, Object[] node) {
+        if (level == 0)
+            return node;
+        Object[] path = newNode();
+        path[0] = newPath(level - BITS, node);
+        return path;
+    }
+
+    @Override
+    public void add(int index, Value value) {
+        if (index == size()) {
+            add(value);
+            return;
+        }
+        Objects.checkIndex(index, size());
+        PersistentVector rebuilt = new PersistentVector();
+        for (int i = 0; i < size(); i++) {
+            if (i == index) rebuilt.add(value);
+            rebuilt.add(get(i));
+        }
+        replaceWith(rebuilt);
+    }
+
+    /**
+     * Removing the first item only moves the start of the vector on, until the items before it make up half of it,
+     * which then gets rebuilt without them, so that a list used as a queue doesn't keep everything it ever held
+     */
+    @Override
+    public Value remove(int index) {
+        Value old = get(index);
+        if (index == 0) {
+            start++;
+            if (start >= WIDTH && start >= count >>> 1) {
+                PersistentVector rebuilt = new PersistentVector();
+                for (Value item : this)
+                    rebuilt.add(item);
+                replaceWith(rebuilt);
+            }
+        } else if (index == size() - 1) {
+            truncate(count - 1);
+        } else {
+            PersistentVector rebuilt = new PersistentVector();
+            for (int i = 0; i < size(); i++)
+                if (i != index) rebuilt.add(get(i));
+            replaceWith(rebuilt);
+        }
+        version++;
+        modCount++;
+        return old;
+    }
+
+    /**
+     * Drops the items from the given index in the trie onwards. The ones left in the trie after the new tail stay
+     * there, unreachable, until they get replaced.
+     */
+    private void truncate(int newCount) {
+        if (newCount == 0) {
+            clear();
+            return;
+        }
+        int newTailOffset = ((newCount - 1) >>> BITS) << BITS;
+        if (newTailOffset != tailOffset()) {
+            tail = leafFor(newTailOffset);
+        } else if (tail[EDIT] == edit) {
+            for (int i = newCount - newTailOffset; i < count - newTailOffset; i++)
+                tail[i] = null;
+        }
+        count = newCount;
+        version++;
+    }
+
+    private void replaceWith(PersistentVector other) {
+        root = other.root;
+        shift = other.shift;
+        tail = other.tail;
+        edit = other.edit;
+        count = other.count;
+        start = other.start;
+        version++;
+    }
+
+    @Override
+    public void clear() {
+        root = newNode();
+        shift = BITS;
+        tail = newNode();
+        count = 0;
+        start = 0;
+        version++;
+        modCount++;
+    }
+
+    /**
+     * Goes through the items a whole node at a time, instead of looking up each of them from the root
+     */
+    @Override
+    public Iterator<Value> iterator() {
+        return new Iterator<>() {
+            private int index = 0;
+            private Object[] leaf = null;
+            private int leafVersion = -1;
+            private int leafStart = -1;
+
+            @Override
+            public boolean hasNext() {
+                return index < size();
+            }
+
+            @Override
+            public Value next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                int i = start + index++;
+                int tailOffset = tailOffset();
+                if (i >= tailOffset)
+                    return (Value) tail[i - tailOffset];
+                if ((i & ~MASK) != leafStart || leafVersion != version) {
+                    leaf = leafFor(i);
+                    leafVersion = version;
+                    leafStart = i & ~MASK;
+                }
+                return (Value) leaf[i & MASK];
+            }
+        };
+    }
+}
@@ -0,0 +1,123 @@
+package adsen.scarpet.interpreter.parser.value;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The string keys of a small {@link CompactMap}, in the order they went in, and so where each of its values is in its
+ * array. Maps with the same keys added in the same order end up with the same shape, as a shape only ever makes one
+ * shape for each key added to it, so each key set is worked out once and shared by all of those maps.
+ * <p>
+ * A shape also remembers a few key instances it was asked about, so the literal key of a {@code get} that keeps being
+ * called on maps of one shape finds its index without hashing it or comparing strings.
+ * <p>
+ * Shapes are shared by maps on all threads, so looking keys and transitions up takes no lock. Only making a new shape
+ * locks the one it comes from, so that two threads adding the same key get the same shape.
+ */
+final class Shape {
+    /**
+     * Most keys a shape has, maps with more of them keep them in a table instead
+     */
+    static final int MAX_KEYS = 16;
+    /**
+     * Most shapes ever made, so that scripts using lots of different keys can't fill memory up with them
+     */
+    private static final int MAX_SHAPES = 1 << 14;
+    private static final int CACHE_SIZE = 4; // a power of two, as indexOf masks identity hashes with it
+    private static final AtomicInteger shapes = new AtomicInteger();
+
+    static final Shape EMPTY = new Shape(new StringValue[0], new int[0]);
+
+    private final StringValue[] keys;
+    private final int[] hashes;
+    private final Map<StringValue, Shape> transitions = new ConcurrentHashMap<>();
+    /**
+     * Slot for each key instance picked by its identity hash. Threads may race writing it, but a {@link Lookup} is
+     * immutable, so the worst a thread sees is a missing or other key, and it then just looks the key up.
+     */
+    private final Lookup[] cache = new Lookup[CACHE_SIZE];
+
+    private record Lookup(Object key, int index) {
+    }
+
+    private Shape(StringValue[] keys, int[] hashes) {
+        this.keys = keys;
+        this.hashes = hashes;
+    }
+
+    int size() {
+        return keys.length;
+    }
+
+    StringValue keyAt(int index) {
+        return keys[index];
+    }
+
+    /**
+     * @return Where the value of the key is, or -1 if maps of this shape don't have it
+     */
+    int indexOf(Object key) {
+        int slot = System.identityHashCode(key) & (CACHE_SIZE - 1);
+        Lookup lookup = cache[slot];
+        if (lookup != null && lookup.key == key)
+            return lookup.index;
+        if (!(key instanceof StringValue))
+            return -1;
+        int hash = key.hashCode();
+        for (int i = 0; i < keys.length; i++) {
+            if (hashes[i] == hash && keys[i].equals(key)) {
+                cache[slot] = new Lookup(key, i);
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Shape of the maps of this one once the key is added, which goes last
+     *
+     * @return {@code null} if that would take too many keys or shapes
+     */
+    Shape with(StringValue key) {
+        Shape next = transitions.get(key);
+        if (next != null)
+            return next;
+        if (keys.length >= MAX_KEYS)
+            return null;
+        synchronized (this) {
+            next = transitions.get(key);
+            if (next == null) {
+                if (!reserveShape())
+                    return null;
+                StringValue[] nextKeys = Arrays.copyOf(keys, keys.length + 1);
+                int[] nextHashes = Arrays.copyOf(hashes, hashes.length + 1);
+                nextKeys[keys.length] = key;
+                nextHashes[keys.length] = key.hashCode();
+                next = new Shape(nextKeys, nextHashes);
+                transitions.put(key, next);
+            }
+            return next;
+        }
+    }
+
+    /**
+     * Counts one more shape, unless there are already {@link Shape#MAX_SHAPES}, in which case the count stays as it is
+     */
+    private static boolean reserveShape() {
+        return shapes.getAndUpdate(count -> count < MAX_SHAPES ? count + 1 : count) < MAX_SHAPES;
+    }
+
+    /**
+     * Shape of the maps of this one once the key at the index is taken out, with the keys after it moved down by one
+     *
+     * @return {@code null} if that would take too many shapes
+     */
+    Shape without(int index) {
+        Shape shape = EMPTY;
+        for (int i = 0; i < keys.length && shape != null; i++)
+            if (i != index) shape = shape.with(keys[i]);
+        return shape;
+    }
+}
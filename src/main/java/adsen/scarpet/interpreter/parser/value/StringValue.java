@@ -1,5 +1,7 @@
 package adsen.scarpet.interpreter.parser.value;
 
+import java.util.Objects;
+
 public class StringValue extends Value
 {
     private final String str;
@@ -23,6 +25,16 @@ public class StringValue extends Value
         return str != null && !str.isEmpty();
     }
 
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof StringValue s && Objects.equals(str, s.str);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(str); // String caches its hash
+    }
+
     @Override
     public Value clone()
     {
@@ -7,17 +7,30 @@ import java.util.regex.Pattern;
 
 @SuppressWarnings("StaticInitializerReferencesSubClass")
 public abstract class Value implements Comparable<Value>, Cloneable {
-    public static Value FALSE = new NumericValue(0);
-    public static Value TRUE = new NumericValue(1);
+    public static Value FALSE = NumericValue.of(0);
+    public static Value TRUE = NumericValue.of(1);
     public static Value ZERO = FALSE;
     public static Value NULL = new NullValue();
 
     public String boundVariable;
+    /**
+     * Whether this instance is used from more than one place, like the small numbers in {@link NumericValue#of} or the
+     * constants in compiled code, so binding it to a variable gives a bound copy instead, see {@link Value#bindTo}
+     */
+    private boolean shared;
 
     public Value() {
         this.boundVariable = null;
     }
 
+    /**
+     * Marks this instance as used from more than one place, so it never gets bound to a variable itself
+     */
+    public Value share() {
+        shared = true;
+        return this;
+    }
+
     public static <T> T assertNotNull(T t) {
         if (t == null)
             throw new InternalExpressionException("Operand may not be null");
@@ -48,10 +61,13 @@ public abstract class Value implements Comparable<Value>, Cloneable {
             e.printStackTrace();
         }
         copy.boundVariable = var;
+        copy.shared = false;
         return copy;
     }
 
     public Value bindTo(String var) {
+        if (shared)
+            return reboundedTo(var);
         this.boundVariable = var;
         return this;
     }
@@ -62,6 +78,14 @@ public abstract class Value implements Comparable<Value>, Cloneable {
         return getString();
     }
 
+    /**
+     * Appends {@link Value#getString()} to the builder, which containers use to make their string without making
+     * a separate one for every item
+     */
+    public void appendTo(StringBuilder sb) {
+        sb.append(getString());
+    }
+
     public abstract String getTypeString();
 
     public abstract boolean getBoolean();
@@ -104,6 +128,11 @@ public abstract class Value implements Comparable<Value>, Cloneable {
         return getString().compareTo(o.getString());
     }
 
+    /**
+     * Whether the values are equal as far as scarpet is concerned, like with {@code ==}. This is looser than
+     * {@link Object#equals(Object)}, which values override to say whether they are the same key of a map, so values
+     * of different types, which can be equal here, are never the same key.
+     */
     public boolean equals(final Value o) {
         return this.compareTo(o) == 0;
     }
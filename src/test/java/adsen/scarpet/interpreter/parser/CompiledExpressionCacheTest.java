@@ -0,0 +1,87 @@
+package adsen.scarpet.interpreter.parser;
+
+import adsen.scarpet.interpreter.parser.value.NumericValue;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class CompiledExpressionCacheTest {
+
+    private static LazyValue ast(int value) {
+        NumericValue number = NumericValue.of(value);
+        return (c, t) -> number;
+    }
+
+    @Test
+    void countsHitsAndMisses() {
+        CompiledExpressionCache cache = new CompiledExpressionCache(4, 100);
+        LazyValue ast = ast(1);
+        assertNull(cache.get("1"));
+        cache.put("1", ast);
+        assertSame(ast, cache.get("1"));
+        assertSame(ast, cache.get("1"));
+        assertNull(cache.get("2"));
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getWeight());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        CompiledExpressionCache cache = new CompiledExpressionCache(2, 100);
+        cache.put("a", ast(1));
+        cache.put("b", ast(2));
+        cache.get("a");
+        cache.put("c", ast(3)); // b is the one used longest ago
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(1, cache.getEvictions());
+
+        cache.put("dddd", ast(4)); // over the weight once the limit goes down
+        cache.resize(2, 4);
+        assertEquals(1, cache.size());
+        assertNotNull(cache.get("dddd"));
+        assertEquals(3, cache.getEvictions());
+
+        cache.put("way too long", ast(5));
+        assertNull(cache.get("way too long"));
+    }
+
+    @Test
+    void clearingStartsCountingAgain() {
+        CompiledExpressionCache cache = new CompiledExpressionCache(1, 100);
+        cache.put("a", ast(1));
+        cache.put("b", ast(2));
+        cache.get("a");
+        cache.get("b");
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.getMisses());
+        assertEquals(0, cache.getEvictions());
+    }
+
+    @Test
+    void cachedProgramsGiveTheSameResults() {
+        String code = "f(x) -> if(x < 2, x, f(x - 1) + f(x - 2)); l(f(10), str('%.2f', pi), map(l(1, 2, 3), _ * _))";
+        CompiledExpressionCache cache = Expression.getCompiledCache();
+        Expression uncached = new Expression(code);
+        uncached.addUnaryFunction("unused", v -> v); // expressions with functions of their own are never cached
+        String expected = uncached.eval(Context.simpleParse()).getString();
+
+        long hits = cache.getHits();
+        long misses = cache.getMisses();
+        assertEquals(expected, new Expression(code).eval(Context.simpleParse()).getString());
+        assertEquals(expected, new Expression(code).eval(Context.simpleParse()).getString());
+        assertEquals(expected, new Expression(code + ";").eval(Context.simpleParse()).getString());
+        assertEquals(hits + 2, cache.getHits());
+        assertEquals(misses + 1, cache.getMisses());
+        assertNotNull(cache.get(code));
+    }
+}
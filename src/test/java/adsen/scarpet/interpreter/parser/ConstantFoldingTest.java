@@ -0,0 +1,71 @@
+package adsen.scarpet.interpreter.parser;
+
+import adsen.scarpet.interpreter.parser.exception.ExpressionException;
+import adsen.scarpet.interpreter.parser.value.StringValue;
+import adsen.scarpet.interpreter.parser.value.Value;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.PatternSyntaxException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ConstantFoldingTest {
+
+    private static String eval(String code) {
+        return new Expression(code).eval(Context.simpleParse()).getString();
+    }
+
+    @Test
+    void foldsConstantArithmetic() {
+        assertEquals("14", eval("2 + 3 * 4"));
+        assertEquals("abcd", eval("'ab' + 'cd'"));
+    }
+
+    @Test
+    void untakenBranchesDontThrow() {
+        assertEquals("1", eval("if(false, 'abc' ~ '(', 1)"));
+        assertEquals("1", eval("if(false, 1 / 0, 1)"));
+        assertEquals("1", eval("if(true, 1, 'a' % 2)"));
+    }
+
+    @Test
+    void takenBranchesStillThrow() {
+        assertThrows(PatternSyntaxException.class, () -> eval("if(true, 'abc' ~ '(', 1)"));
+        assertThrows(ExpressionException.class, () -> eval("if(true, 'a' % 2, 1)"));
+    }
+
+    @Test
+    void bindingConstantsGivesCopies() {
+        Nodes.ConstantNode node = new Nodes.ConstantNode(new StringValue("x"));
+        Value value = node.evalValue(null);
+        Value bound = value.bindTo("_a");
+        assertNotSame(value, bound);
+        assertEquals("_a", bound.getVariable());
+        assertNull(node.evalValue(null).getVariable());
+    }
+
+    @Test
+    void cachedProgramsGiveTheSameResultEachTime() throws Exception {
+        String code = "l(reduce(l(1, 2), _a + _, 'x'), reduce(l(), _a + _, 'y'), for(l('a', 'b'), _ == 'a'))";
+        assertEquals("[x12, y, 1]", eval(code));
+        assertEquals("[x12, y, 1]", eval(code));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 64; i++)
+                results.add(executor.submit(() -> eval(code)));
+            for (Future<String> result : results)
+                assertEquals("[x12, y, 1]", result.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package adsen.scarpet.interpreter.parser;
+
+import adsen.scarpet.interpreter.parser.util.LUDecomposition;
+import adsen.scarpet.interpreter.parser.util.Matrix;
+import adsen.scarpet.interpreter.parser.util.SparseMatrix;
+import adsen.scarpet.interpreter.parser.value.ListValue;
+import adsen.scarpet.interpreter.parser.value.MatrixValue;
+import adsen.scarpet.interpreter.parser.value.NumericValue;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DecompositionTest {
+    private static final double DELTA = 1e-12;
+
+    /**
+     * 4x + 3y = 10, 3x + 4y - z = 8, -y + 4z = 10, which has the determinant 24 and the solution (1, 2, 3)
+     */
+    private static Matrix system() {
+        return new Matrix(new double[][]{{4, 3, 0}, {3, 4, -1}, {0, -1, 4}});
+    }
+
+    private static void assertMatrix(double[][] expected, Matrix actual) {
+        assertEquals(expected.length, actual.N);
+        assertEquals(expected[0].length, actual.M);
+        for (int n = 0; n < actual.N; n++)
+            for (int m = 0; m < actual.M; m++)
+                assertEquals(expected[n][m], actual.get(m, n), DELTA);
+    }
+
+    @Test
+    void determinantInverseAndSolve() {
+        LUDecomposition lu = new LUDecomposition(system());
+        assertFalse(lu.isSingular());
+        assertEquals(24, lu.determinant(), DELTA);
+        assertMatrix(new double[][]{{1, 0, 0}, {0, 1, 0}, {0, 0, 1}}, system().multiply(lu.inverse()));
+        assertMatrix(new double[][]{{1}, {2}, {3}}, lu.solve(new Matrix(new double[][]{{10}, {8}, {10}})));
+        assertEquals(24, system().determinant(), DELTA);
+        assertEquals("[0.8, 1.4]", new Expression("solve(l(l(2, 1), l(1, 3)), l(3, 5))").eval(Context.simpleParse()).getString());
+    }
+
+    @Test
+    void singularMatricesCantBeInvertedOrSolved() {
+        Matrix singular = new Matrix(new double[][]{{1, 2}, {2, 4}});
+        LUDecomposition lu = new LUDecomposition(singular);
+        assertTrue(lu.isSingular());
+        assertEquals(0, lu.determinant(), 0);
+        assertThrows(ArithmeticException.class, lu::inverse);
+        assertThrows(ArithmeticException.class, () -> lu.solve(new Matrix(new double[][]{{1}, {2}})));
+        assertThrows(ArithmeticException.class, () -> new MatrixValue(singular).solve(new Matrix(new double[][]{{1}, {2}})));
+    }
+
+    /**
+     * Fits a + b t through (0, 1), (1, 2), (2, 2) and (3, 4), which is best done with a = 0.9 and b = 0.9
+     */
+    @Test
+    void leastSquares() {
+        MatrixValue points = new MatrixValue(new double[][]{{1, 0}, {1, 1}, {1, 2}, {1, 3}});
+        assertMatrix(new double[][]{{0.9}, {0.9}}, points.solve(new Matrix(new double[][]{{1}, {2}, {2}, {4}})));
+
+        MatrixValue dependent = new MatrixValue(new double[][]{{1, 2}, {2, 4}, {3, 6}});
+        assertThrows(ArithmeticException.class, () -> dependent.solve(new Matrix(new double[][]{{1}, {2}, {3}})));
+        MatrixValue wide = new MatrixValue(new double[][]{{1, 2, 3}});
+        assertThrows(RuntimeException.class, () -> wide.solve(new Matrix(new double[][]{{1}})));
+    }
+
+    @Test
+    void decompositionIsRedoneAfterChanges() {
+        MatrixValue matrix = new MatrixValue(new double[][]{{2, 0}, {0, 2}});
+        MatrixValue copy = (MatrixValue) matrix.reboundedTo("copy");
+        LUDecomposition lu = matrix.decomposition();
+        assertSame(lu, matrix.decomposition());
+        assertEquals(4, copy.decomposition().determinant(), DELTA);
+
+        matrix.put(ListValue.of(NumericValue.of(0), NumericValue.of(0)), NumericValue.of(5));
+        assertNotSame(lu, matrix.decomposition());
+        assertEquals(10, matrix.decomposition().determinant(), DELTA);
+        assertEquals(10, copy.decomposition().determinant(), DELTA); // the copy shares the matrix
+        assertSame(matrix.decomposition(), matrix.decomposition());
+
+        MatrixValue sparse = new MatrixValue(new SparseMatrix(2, 2));
+        sparse.put(ListValue.of(NumericValue.of(0), NumericValue.of(0)), NumericValue.of(3));
+        sparse.put(ListValue.of(NumericValue.of(1), NumericValue.of(1)), NumericValue.of(3));
+        assertEquals(9, sparse.decomposition().determinant(), DELTA);
+        sparse.put(ListValue.of(NumericValue.of(1), NumericValue.of(1)), NumericValue.of(0));
+        assertTrue(sparse.decomposition().isSingular());
+    }
+}
@@ -0,0 +1,48 @@
+package adsen.scarpet.interpreter.parser;
+
+import adsen.scarpet.interpreter.parser.value.NumericValue;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExactIntegerTest {
+
+    private static String eval(String code) {
+        return new Expression(code).eval(Context.simpleParse()).getString();
+    }
+
+    @Test
+    void integersStayExactOverTheWholeLongRange() {
+        assertEquals("2432902008176640001", eval("fact(20) + 1"));
+        assertEquals("2432902008176639999", eval("fact(20) - 1"));
+        assertEquals("4865804016353280000", eval("fact(20) * 2"));
+        assertEquals("1216451004088320000", eval("fact(20) / 2"));
+        assertEquals("9007199254740993", eval("9007199254740992 + 1")); // past 2^53, where doubles skip odd numbers
+        assertEquals("9223372036854775807", new NumericValue(Long.MAX_VALUE).getString());
+    }
+
+    @Test
+    void overflowCarriesOnAsDoubles() {
+        NumericValue max = new NumericValue(Long.MAX_VALUE);
+        NumericValue min = new NumericValue(Long.MIN_VALUE);
+        assertEquals(Long.MAX_VALUE + 1.0, ((NumericValue) max.add(NumericValue.of(1))).getDouble(), 0);
+        assertEquals(Long.MIN_VALUE - 1.0, ((NumericValue) min.subtract(NumericValue.of(1))).getDouble(), 0);
+        assertEquals(Long.MAX_VALUE * 2.0, ((NumericValue) max.multiply(NumericValue.of(2))).getDouble(), 0);
+        assertEquals(-(double) Long.MIN_VALUE, ((NumericValue) min.divide(NumericValue.of(-1))).getDouble(), 0);
+        assertEquals(-(double) Long.MIN_VALUE, min.negate().getDouble(), 0);
+        assertFalse(((NumericValue) max.add(NumericValue.of(1))).isInteger());
+        assertTrue(((NumericValue) max.subtract(NumericValue.of(1))).isInteger());
+    }
+
+    @Test
+    void equalIntegersHaveEqualHashes() {
+        NumericValue a = new NumericValue((1L << 60) + 1);
+        NumericValue b = new NumericValue(1L << 60);
+        assertFalse(a.equals((Object) b));
+        assertEquals(new NumericValue(1L << 60), b);
+        assertEquals(new NumericValue(1L << 60).hashCode(), b.hashCode());
+        assertEquals(NumericValue.of(3.0), NumericValue.of(3));
+    }
+}
@@ -0,0 +1,105 @@
+package adsen.scarpet.interpreter.parser;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class FunctionCompilerTest {
+    private static final String[] PROGRAMS = {
+            "fib(n) -> if(n < 2, n, fib(n - 1) + fib(n - 2)); fib(15)",
+            "f(x) -> (s = 0; loop(x, s += _); s); f(100)",
+            "f(x) -> (s = 0; c = 0; while(c < x, x, c += 1; s = s + c * c); s); f(20)",
+            "g(l) -> map(l, _ * 2); g(l(1, 2, 3))",
+            "g(x) -> l(filter(x, _ % 2 == 0), reduce(x, _a + _, 0)); g(l(1, 2, 3, 4, 5, 6))",
+            "h(x) -> if(x > 3, 'big', 'small') + str(x); h(2) + h(5)",
+            "h(x) -> (a = -x; b = !x; c = x ^ 2 / 3; l(a, b, c, x == 2, x != 2, x >= 2 && x < 3 || false)); h(2)",
+            "t(x) -> (try(throw('e'), _); x); t(3)",
+            "t(x) -> (if(x > 0, return(x * 10)); -1); t(1) + t(-1)",
+            "mk(k) -> (mm = m(); put(mm, k, 1); put(mm, 2, 3); l(get(mm, k), get(mm, 2), has(mm, 'b'))); mk('a')",
+            "q(k) -> (w = l(1, 2, 3, 4, 5, 6); put(w, 3, 'x'); l(get(w, k), w)); q(5)",
+            "s(x) -> (x = x + 'b'; length(x) + (x ~ 'b')); s('aaa')",
+            "v(n) -> (global_x = n; global_x * 2); v(21)",
+    };
+
+    private static Context context() {
+        return Context.simpleParse();
+    }
+
+    private static String run(String code) {
+        try {
+            return new Expression(code).eval(context()).getString();
+        } catch (RuntimeException exc) {
+            return exc.getClass().getSimpleName() + ": " + exc.getMessage();
+        }
+    }
+
+    /**
+     * Compiling on the first call has to give the same results and errors as the tree
+     */
+    @Test
+    void matchesTree() {
+        int threshold = FunctionCompiler.getCompileThreshold();
+        try {
+            for (String program : PROGRAMS) {
+                FunctionCompiler.setCompileThreshold(0);
+                String tree = run(program);
+                FunctionCompiler.setCompileThreshold(1);
+                assertEquals(tree, run(program), program);
+            }
+        } finally {
+            FunctionCompiler.setCompileThreshold(threshold);
+        }
+    }
+
+    /**
+     * Compiling a function falls back to the tree silently if it fails, so this checks that the code is really compiled
+     */
+    @Test
+    void compilesWholePrograms() {
+        int threshold = FunctionCompiler.getCompileThreshold();
+        FunctionCompiler.setCompileThreshold(0);
+        try {
+            for (String program : PROGRAMS) {
+                String tree = run(program);
+                LazyValue ast = Expression.getCompiledCache().get(program);
+                assertNotNull(ast, program);
+                LazyValue compiled = FunctionCompiler.compile(ast);
+                assertNotNull(compiled, program);
+                String result;
+                try {
+                    result = compiled.evalValue(context()).getString();
+                } catch (RuntimeException exc) {
+                    result = exc.getClass().getSimpleName() + ": " + exc.getMessage();
+                }
+                assertEquals(tree, result, program);
+            }
+        } finally {
+            FunctionCompiler.setCompileThreshold(threshold);
+        }
+    }
+
+    /**
+     * Each run of a cached program defines its functions again, but they all count their calls on, and get the
+     * compiled body from, the one tree they share
+     */
+    @Test
+    void sharesCompiledBodiesBetweenRuns() {
+        String program = "sq(x) -> x * x; sq(3)";
+        int threshold = FunctionCompiler.getCompileThreshold();
+        FunctionCompiler.setCompileThreshold(3);
+        try {
+            assertEquals("9", run(program));
+            Nodes.OperatorNode sequence = (Nodes.OperatorNode) ((Nodes.ScopeNode) Expression.getCompiledCache().get(program)).body;
+            Nodes.ScopeNode body = (Nodes.ScopeNode) ((Nodes.OperatorNode) sequence.left).right;
+            assertEquals("9", run(program));
+            assertNull(body.compiled);
+            assertEquals("9", run(program));
+            assertNotNull(body.compiled);
+            assertEquals("9", run(program));
+        } finally {
+            FunctionCompiler.setCompileThreshold(threshold);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package adsen.scarpet.interpreter.parser;
+
+import adsen.scarpet.interpreter.parser.value.NumericValue;
+import adsen.scarpet.interpreter.parser.value.Value;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class LoopsTest {
+
+    private static String eval(String code) {
+        return new Expression(code).eval(Context.simpleParse()).getString();
+    }
+
+    /**
+     * Small numbers are shared by every list and thread, so looping over them mustn't bind them, even for a while
+     */
+    @Test
+    void sharedNumbersStayUnbound() {
+        for (String loop : new String[]{"map", "filter", "first", "all", "for"}) {
+            Expression expression = new Expression(loop + "(l(1, 2, 3), check(_))");
+            expression.addFunction("check", values -> {
+                assertEquals("_", values.get(0).boundVariable);
+                for (int i = 1; i <= 3; i++)
+                    assertNull(NumericValue.of(i).boundVariable, loop);
+                return Value.TRUE;
+            });
+            expression.eval(Context.simpleParse());
+        }
+        assertEquals("6", eval("reduce(l(1, 2, 3), _a + _, 0)"));
+    }
+
+    @Test
+    void itemsArentCopied() {
+        assertEquals("[[5]]", eval("a = l(l(1)); for(a, put(_, 0, 5)); a"));
+    }
+}
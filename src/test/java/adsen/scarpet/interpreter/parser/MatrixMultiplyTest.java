@@ -0,0 +1,97 @@
+package adsen.scarpet.interpreter.parser;
+
+import adsen.scarpet.interpreter.parser.util.Matrix;
+import adsen.scarpet.interpreter.parser.util.SparseMatrix;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MatrixMultiplyTest {
+    private static final double DELTA = 1e-12;
+
+    private static Matrix random(Random random, int rows, int columns) {
+        Matrix matrix = new Matrix(columns, rows);
+        double[] values = matrix.values();
+        for (int i = 0; i < values.length; i++)
+            values[i] = random.nextGaussian();
+        return matrix;
+    }
+
+    /**
+     * Dense matrix with only about one in {@code spread} values set
+     */
+    private static Matrix scattered(Random random, int rows, int columns, int spread) {
+        Matrix matrix = new Matrix(columns, rows);
+        double[] values = matrix.values();
+        for (int i = 0; i < values.length; i++)
+            if (random.nextInt(spread) == 0) values[i] = random.nextInt(19) - 9;
+        return matrix;
+    }
+
+    private static void assertClose(Matrix expected, Matrix actual) {
+        assertEquals(expected.N, actual.N);
+        assertEquals(expected.M, actual.M);
+        for (int i = 0; i < expected.values().length; i++)
+            assertEquals(expected.values()[i], actual.values()[i], DELTA);
+    }
+
+    /**
+     * The sizes go past a block each way, and the pool gets tasks for several rows each
+     */
+    @Test
+    void parallelIsBitIdenticalToSerial() {
+        Random random = new Random(5);
+        Matrix a = random(random, 300, 200);
+        Matrix b = random(random, 200, 600);
+        Matrix vector = random(random, 200, 1);
+        long threshold = Matrix.getParallelThreshold();
+        ForkJoinPool pool = Matrix.getPool();
+        ForkJoinPool parallel = new ForkJoinPool(4);
+        try {
+            Matrix.setParallelThreshold(0);
+            Matrix serial = a.multiply(b);
+            Matrix serialVector = a.multiply(vector);
+            Matrix.setPool(parallel);
+            Matrix.setParallelThreshold(1);
+            assertTrue(Arrays.equals(serial.values(), a.multiply(b).values()));
+            assertTrue(Arrays.equals(serialVector.values(), a.multiply(vector).values()));
+        } finally {
+            Matrix.setPool(pool);
+            Matrix.setParallelThreshold(threshold);
+            parallel.shutdown();
+        }
+    }
+
+    @Test
+    void sparseMatchesDense() {
+        Random random = new Random(11);
+        Matrix a = scattered(random, 40, 30, 5);
+        Matrix b = scattered(random, 30, 50, 4);
+        Matrix left = scattered(random, 20, 40, 3);
+        SparseMatrix sparseA = SparseMatrix.of(a);
+        SparseMatrix sparseB = SparseMatrix.of(b);
+
+        assertClose(a.multiply(b), sparseA.multiply(sparseB).toDense());
+        assertClose(a.multiply(b), sparseA.multiply(b));
+        assertClose(left.multiply(a), sparseA.multiplyLeft(left));
+        assertClose(a.multiply(2.5), sparseA.multiply(2.5).toDense());
+    }
+
+    @Test
+    void sparseProductsLeaveOutZeros() {
+        SparseMatrix a = new SparseMatrix(2, 2);
+        a.set(0, 0, 1);
+        a.set(1, 0, 1);
+        SparseMatrix b = new SparseMatrix(2, 2);
+        b.set(0, 0, 1);
+        b.set(0, 1, -1);
+        SparseMatrix product = a.multiply(b); // 1 * 1 + 1 * -1 in the top left, nothing anywhere else
+        assertEquals(0.0, product.get(0, 0), 0);
+        assertEquals(0, product.nonZeros());
+    }
+}
@@ -0,0 +1,56 @@
+package adsen.scarpet.interpreter.parser;
+
+import adsen.scarpet.interpreter.parser.util.SparseMatrix;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SparseMatrixTest {
+
+    private static String eval(String code) {
+        return new Expression(code).eval(Context.simpleParse()).getString();
+    }
+
+    @Test
+    void hasCellsInsideTheMatrix() {
+        assertEquals("true", eval("s = sparse_matrix(3, 3); put(s, l(2, 1), 5); has(s, l(2, 1))"));
+        assertEquals("true", eval("s = sparse_matrix(2, 3); has(s, l(2, 1))"));
+        assertEquals("true", eval("s = sparse_matrix(2, 3); has(s, l(0, 0))"));
+        assertEquals("false", eval("s = sparse_matrix(2, 3); has(s, l(1, 2))"));
+        assertEquals("false", eval("s = sparse_matrix(2, 3); has(s, l(-1, 0))"));
+    }
+
+    @Test
+    void getAndPut() {
+        assertEquals("5", eval("s = sparse_matrix(3, 3); put(s, l(2, 1), 5); get(s, l(2, 1))"));
+        assertEquals("0", eval("s = sparse_matrix(3, 3); put(s, l(2, 1), 5); get(s, l(1, 2))"));
+    }
+
+    @Test
+    void trueWithValues() {
+        assertEquals("0", eval("bool(sparse_matrix(2, 3))"));
+        assertEquals("1", eval("s = sparse_matrix(2, 3); put(s, l(0, 0), 1); bool(s)"));
+    }
+
+    @Test
+    void sizeGoesRowsFirst() {
+        assertEquals("2x3 sparse matrix {(2, 1): 5.0}", eval("s = sparse_matrix(2, 3); put(s, l(2, 1), 5); s"));
+    }
+
+    @Test
+    void settingZeroTakesValuesOut() {
+        SparseMatrix matrix = new SparseMatrix(4, 2);
+        matrix.set(3, 0, 1);
+        matrix.set(1, 0, 2);
+        matrix.set(2, 0, 3);
+        assertEquals(3, matrix.nonZeros());
+        assertEquals(3.0, matrix.set(2, 0, 0), 0);
+        assertEquals(2, matrix.nonZeros());
+        assertEquals(0.0, matrix.get(2, 0), 0);
+        assertEquals(2.0, matrix.get(1, 0), 0);
+        assertEquals(1.0, matrix.get(3, 0), 0);
+        assertEquals(0.0, matrix.set(0, 1, 0), 0); // nothing there to take out
+        assertEquals(2, matrix.nonZeros());
+        assertEquals("0", eval("s = sparse_matrix(2, 2); put(s, l(1, 1), 5); put(s, l(1, 1), 0); bool(s)"));
+    }
+}
@@ -0,0 +1,42 @@
+package adsen.scarpet.interpreter.parser;
+
+import adsen.scarpet.interpreter.parser.exception.ExpressionException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StackMemoryTest {
+
+    private static String eval(String code) {
+        return new Expression(code).eval(Context.simpleParse()).getString();
+    }
+
+    @Test
+    void deepRecursionRunsWithALargerStack() {
+        long stackMemory = Expression.getStackMemory();
+        Expression.setStackMemory(1L << 28);
+        try {
+            String code = "depth(n) -> if(n == 0, 0, 1 + depth(n - 1)); depth(20000)";
+            assertEquals("20000", eval(code));
+            assertEquals("20000", eval(code));
+            assertThrows(ExpressionException.class, () -> eval("'a' % 2"));
+        } finally {
+            Expression.setStackMemory(stackMemory);
+        }
+    }
+
+    @Test
+    void changingTheStackSizeKeepsEvaluating() {
+        long stackMemory = Expression.getStackMemory();
+        try {
+            for (long bytes : new long[]{1L << 20, 1L << 22, 0, 1L << 21}) {
+                Expression.setStackMemory(bytes);
+                assertEquals(bytes, Expression.getStackMemory());
+                assertEquals("6", eval("f(x) -> x * 2; f(3)"));
+            }
+        } finally {
+            Expression.setStackMemory(stackMemory);
+        }
+    }
+}
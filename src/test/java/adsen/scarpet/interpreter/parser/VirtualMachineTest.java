@@ -0,0 +1,53 @@
+package adsen.scarpet.interpreter.parser;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class VirtualMachineTest {
+    private static final String[] PROGRAMS = {
+            "1 + 2 * 3 - 4 / 8",
+            "a = 3; b = a * a; a + b",
+            "s = 0; loop(100, s += _); s",
+            "s = 0; loop(10, if(_ % 2, s += _, s = s - 1)); s",
+            "c = 0; while(c < 10, 100, c += 1); c",
+            "fib(n) -> if(n < 2, n, fib(n - 1) + fib(n - 2)); fib(15)",
+            "count(n, acc) -> if(n == 0, acc, count(n - 1, acc + n)); count(5000, 0)",
+            "map(range(5), _ * _)",
+            "l = l(3, 1, 2); sort(l)",
+            "first(l(1, 2, 3), _ > 1) + for(l(1, 2, 3), _ > 1) + all(l(1, 2), _ > 0)",
+            "mm = m(); put(mm, 'a', 1); put(mm, 'b', 2); l(get(mm, 'a'), get(mm, 'b'), has(mm, 'c'))",
+            "if(false, 1 / 0, 'ok')",
+            "x = 'abc'; x ~ 'b'",
+            "try(throw('oops'), _ + '!')",
+            "f(x) -> (if(x > 0, return(x * 10)); -1); f(1) + f(-1)",
+            "global_a = 5; g() -> global_a += 1; g(); g(); global_a",
+            "'a' % 2",
+            "undefined_function(1)",
+            "l(1, 2) - l(1, 2, 3)",
+    };
+
+    private static String run(String code, ScriptHost.Engine engine) {
+        try {
+            Context c = Context.simpleParse();
+            c.host.setEngine(engine);
+            return new Expression(code).eval(c).getString();
+        } catch (RuntimeException exc) {
+            return exc.getClass().getSimpleName() + ": " + exc.getMessage();
+        }
+    }
+
+    /**
+     * The VM has to give the same results and the same errors, at the same positions, as the tree
+     */
+    @Test
+    void matchesTree() {
+        for (String program : PROGRAMS)
+            assertEquals(run(program, ScriptHost.Engine.TREE), run(program, ScriptHost.Engine.VM), program);
+    }
+
+    @Test
+    void runsLongLoops() {
+        assertEquals("500000500000", run("s = 0; loop(1000001, s += _); s", ScriptHost.Engine.VM));
+    }
+}
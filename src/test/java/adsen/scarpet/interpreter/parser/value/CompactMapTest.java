@@ -0,0 +1,130 @@
+package adsen.scarpet.interpreter.parser.value;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CompactMapTest {
+
+    /**
+     * Does the same random puts, gets and removes on a map and a hash map, checking that they give the same results
+     * and hold the same entries, including through iteration
+     */
+    private static void matchesHashMap(long seed, int steps, IntFunction<Value> keys) {
+        Random random = new Random(seed);
+        CompactMap map = new CompactMap();
+        Map<Value, Value> expected = new HashMap<>();
+        for (int step = 0; step < steps; step++) {
+            Value key = keys.apply(random.nextInt(200));
+            int op = random.nextInt(10);
+            if (op < 5) {
+                Value value = NumericValue.of(random.nextInt(1000));
+                assertEquals(expected.put(key, value), map.put(key, value));
+            } else if (op < 8) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.get(key), map.get(key));
+                assertEquals(expected.containsKey(key), map.containsKey(key));
+            }
+            assertEquals(expected.size(), map.size());
+            if (step % 500 == 0) {
+                assertEquals(expected, new HashMap<>(map));
+                assertEquals(expected.size(), new ArrayList<>(map.entrySet()).size());
+            }
+            if (random.nextInt(5000) == 0) {
+                map.clear();
+                expected.clear();
+            }
+        }
+        assertEquals(expected, new HashMap<>(map));
+    }
+
+    @Test
+    void integerKeys() {
+        matchesHashMap(1, 50_000, i -> NumericValue.of(i - 100));
+    }
+
+    @Test
+    void stringKeys() {
+        matchesHashMap(2, 50_000, i -> new StringValue("key" + i));
+    }
+
+    /**
+     * Only a few keys, so the map stays shaped most of the time, and moves to a table when it gets too many
+     */
+    @Test
+    void fewStringKeys() {
+        matchesHashMap(3, 50_000, i -> new StringValue("k" + (i % 20)));
+    }
+
+    /**
+     * Starts with integers or strings and moves to a generic map once a key of another type goes in
+     */
+    @Test
+    void mixedKeys() {
+        matchesHashMap(4, 50_000, i -> switch (i % 4) {
+            case 0 -> NumericValue.of(i);
+            case 1 -> new StringValue("s" + i);
+            case 2 -> NumericValue.of(i + 0.5);
+            default -> ListValue.of(NumericValue.of(i));
+        });
+    }
+
+    /**
+     * Numbers equal to integers, like {@code true}, have to find the same entry
+     */
+    @Test
+    void equalNumbersAreOneKey() {
+        CompactMap map = new CompactMap();
+        map.put(NumericValue.of(1), new StringValue("one"));
+        assertEquals(new StringValue("one"), map.get(Value.TRUE));
+        assertEquals(new StringValue("one"), map.get(NumericValue.of(1.0)));
+        map.put(NumericValue.of(1.0), new StringValue("uno"));
+        assertEquals(1, map.size());
+    }
+
+    /**
+     * Maps built on several threads share their shapes, and have to end up with the same entries as built on one
+     */
+    @Test
+    void buildsShapedMapsOnThreads() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<Map<Value, Value>>>> results = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int seed = t;
+                results.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    List<Map<Value, Value>> maps = new ArrayList<>();
+                    for (int m = 0; m < 2000; m++) {
+                        CompactMap map = new CompactMap();
+                        Map<Value, Value> expected = new HashMap<>();
+                        for (int k = random.nextInt(12); k >= 0; k--) {
+                            Value key = new StringValue("field" + random.nextInt(24));
+                            Value value = NumericValue.of(m);
+                            map.put(key, value);
+                            expected.put(key, value);
+                        }
+                        assertEquals(expected, new HashMap<>(map));
+                        maps.add(map);
+                    }
+                    return maps;
+                }));
+            }
+            for (Future<List<Map<Value, Value>>> result : results)
+                assertEquals(2000, result.get().size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package adsen.scarpet.interpreter.parser.value;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class NumericValueFormatTest {
+
+    /**
+     * How numbers were printed before they were formatted by hand
+     */
+    private static String old(double d) {
+        return BigDecimal.valueOf(d).stripTrailingZeros().toPlainString();
+    }
+
+    private static void assertFormatsLikeBefore(double d) {
+        NumericValue number = new NumericValue(d);
+        assertEquals(old(d), number.getString(), Double.toString(d));
+        StringBuilder sb = new StringBuilder("x");
+        number.appendTo(sb);
+        assertEquals("x" + old(d), sb.toString(), Double.toString(d));
+    }
+
+    @Test
+    void integers() {
+        for (long i = -1000; i <= 1000; i++)
+            assertFormatsLikeBefore(i);
+        for (long i = 1; i > 0 && i <= 1L << 53; i *= 7)
+            assertFormatsLikeBefore(i);
+        assertEquals(String.valueOf(1234567L), new NumericValue(1234567L).getString());
+        assertEquals(String.valueOf(Long.MIN_VALUE), new NumericValue(Long.MIN_VALUE).getString());
+    }
+
+    @Test
+    void aroundTwoToThe53() {
+        double limit = 0x1p53;
+        double[] numbers = {limit - 2, limit - 1, limit, limit + 2, limit * 2, limit * 3, limit * 1024 + 4096,
+                0x1p60, 0x1p63, 0x1p64, 1e18, 1e19, 123456789012345678.0, limit - 0.5, limit / 2 + 0.5};
+        for (double d : numbers) {
+            assertFormatsLikeBefore(d);
+            assertFormatsLikeBefore(-d);
+        }
+    }
+
+    @Test
+    void negativeZero() {
+        assertEquals("0", new NumericValue(-0.0).getString());
+        assertFormatsLikeBefore(-0.0);
+    }
+
+    @Test
+    void notFinite() {
+        for (double d : new double[]{Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY}) {
+            assertThrows(NumberFormatException.class, () -> old(d));
+            assertThrows(ArithmeticException.class, () -> new NumericValue(d).getString());
+            assertThrows(ArithmeticException.class, () -> new NumericValue(d).appendTo(new StringBuilder()));
+        }
+    }
+
+    @Test
+    void tinyAndHugeExponents() {
+        double[] numbers = {Double.MIN_VALUE, Double.MIN_NORMAL, 1e-300, 1.5e-7, 1e-3, 0.1, 0.001234,
+                1e7, 1.5e7, 1e21, 1e22, 1.7e100, Double.MAX_VALUE, Math.PI, Math.E, 1 / 3.0, 2 / 3.0};
+        for (double d : numbers) {
+            assertFormatsLikeBefore(d);
+            assertFormatsLikeBefore(-d);
+        }
+    }
+
+    @Test
+    void randomDoubles() {
+        Random random = new Random(13);
+        for (int i = 0; i < 10_000; i++) {
+            assertFormatsLikeBefore(random.nextDouble());
+            assertFormatsLikeBefore(random.nextGaussian() * Math.pow(10, random.nextInt(40) - 20));
+            double bits = Double.longBitsToDouble(random.nextLong());
+            if (Double.isFinite(bits))
+                assertFormatsLikeBefore(bits);
+        }
+    }
+}
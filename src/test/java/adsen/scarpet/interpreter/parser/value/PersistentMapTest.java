@@ -0,0 +1,112 @@
+package adsen.scarpet.interpreter.parser.value;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PersistentMapTest {
+
+    /**
+     * Does the same random changes to maps and to hash maps, forking now and then, and checks that every map still has
+     * the entries of its hash map, so that changes never show up in another map
+     */
+    @Test
+    void matchesHashMap() {
+        Random random = new Random(7);
+        List<PersistentMap> maps = new ArrayList<>();
+        List<Map<Value, Value>> expected = new ArrayList<>();
+        maps.add(new PersistentMap());
+        expected.add(new HashMap<>());
+        Value[] keys = new Value[3000];
+        for (int k = 0; k < keys.length; k++)
+            keys[k] = k % 3 == 0 ? new StringValue("key" + k) : NumericValue.of(k % 3 == 1 ? k : k + 0.25);
+        for (int step = 0; step < 100_000; step++) {
+            int which = random.nextInt(maps.size());
+            PersistentMap map = maps.get(which);
+            Map<Value, Value> model = expected.get(which);
+            Value key = keys[random.nextInt(keys.length)];
+            int op = random.nextInt(100);
+            if (op < 50) {
+                Value value = NumericValue.of(random.nextInt(1000));
+                assertEquals(model.put(key, value), map.put(key, value));
+            } else if (op < 75) {
+                assertEquals(model.remove(key), map.remove(key));
+            } else if (op < 95) {
+                assertEquals(model.get(key), map.get(key));
+                assertEquals(model.containsKey(key), map.containsKey(key));
+            } else if (op < 97 && maps.size() < 8) {
+                maps.add(map.fork());
+                expected.add(new HashMap<>(model));
+            } else if (op < 98 && maps.size() > 1) {
+                maps.remove(which);
+                expected.remove(which);
+            }
+            assertEquals(model.size(), map.size());
+            if (step % 2000 == 0)
+                for (int i = 0; i < maps.size(); i++)
+                    assertEquals(expected.get(i), new HashMap<>(maps.get(i)));
+        }
+        for (int i = 0; i < maps.size(); i++) {
+            assertEquals(expected.get(i), new HashMap<>(maps.get(i)));
+            assertEquals(expected.get(i).size(), new ArrayList<>(maps.get(i).entrySet()).size());
+        }
+    }
+
+    /**
+     * Keys with the same hash end up in the same node all the way down
+     */
+    @Test
+    void collidingKeys() {
+        PersistentMap map = new PersistentMap();
+        Map<Value, Value> expected = new HashMap<>();
+        // "Aa" and "BB" have the same hash, as do all strings made of them
+        String[] parts = {"Aa", "BB"};
+        for (int i = 0; i < 16; i++) {
+            StringBuilder key = new StringBuilder();
+            for (int bit = 0; bit < 4; bit++)
+                key.append(parts[(i >> bit) & 1]);
+            Value value = NumericValue.of(i);
+            StringValue stringKey = new StringValue(key.toString());
+            map.put(stringKey, value);
+            expected.put(stringKey, value);
+        }
+        assertEquals(expected, new HashMap<>(map));
+        PersistentMap fork = map.fork();
+        for (Value key : expected.keySet())
+            fork.remove(key);
+        assertEquals(0, fork.size());
+        assertEquals(expected, new HashMap<>(map));
+    }
+
+    /**
+     * Copies of map values share their entries, moved into a persistent map once there are enough of them, and changes
+     * to either one stay out of the other
+     */
+    @Test
+    void mapValueCopiesStayApart() {
+        for (int size : new int[]{3, 100}) {
+            MapValue original = new MapValue(List.of());
+            for (int i = 0; i < size; i++)
+                original.put(NumericValue.of(i), NumericValue.of(i));
+            MapValue copy = (MapValue) original.clone();
+            MapValue sum = (MapValue) original.add(NumericValue.of(-1));
+            copy.put(NumericValue.of(0), new StringValue("changed"));
+            original.delete(NumericValue.of(1));
+
+            assertEquals(size - 1, original.length());
+            assertEquals(NumericValue.of(0), original.get(NumericValue.of(0)));
+            assertEquals(size, copy.length());
+            assertEquals(new StringValue("changed"), copy.get(NumericValue.of(0)));
+            assertEquals(NumericValue.of(1), copy.get(NumericValue.of(1)));
+            assertEquals(size + 1, sum.length());
+            assertEquals(NumericValue.of(0), sum.get(NumericValue.of(0)));
+            assertEquals(size > 32, sum.getMap() instanceof PersistentMap);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package adsen.scarpet.interpreter.parser.value;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PersistentVectorTest {
+
+    /**
+     * Does the same random changes to vectors and to array lists, forking and slicing now and then, and checks that
+     * every vector still has the items of its list, so that changes made in place never show up in another vector
+     */
+    @Test
+    void matchesArrayList() {
+        Random random = new Random(42);
+        List<PersistentVector> vectors = new ArrayList<>();
+        List<List<Value>> lists = new ArrayList<>();
+        vectors.add(new PersistentVector());
+        lists.add(new ArrayList<>());
+        for (int step = 0; step < 100_000; step++) {
+            int which = random.nextInt(vectors.size());
+            PersistentVector vector = vectors.get(which);
+            List<Value> list = lists.get(which);
+            int op = random.nextInt(100);
+            Value value = NumericValue.of(random.nextInt(1000));
+            if (op < 40 || list.isEmpty()) {
+                vector.add(value);
+                list.add(value);
+            } else if (op < 60) {
+                int index = random.nextInt(list.size());
+                assertEquals(list.set(index, value), vector.set(index, value));
+            } else if (op < 70) {
+                assertEquals(list.remove(list.size() - 1), vector.remove(vector.size() - 1));
+            } else if (op < 80) {
+                assertEquals(list.remove(0), vector.remove(0));
+            } else if (op < 82) {
+                int index = random.nextInt(list.size());
+                vector.add(index, value);
+                list.add(index, value);
+            } else if (op < 84) {
+                int index = random.nextInt(list.size());
+                assertEquals(list.remove(index), vector.remove(index));
+            } else if (op < 87 && vectors.size() < 8) {
+                vectors.add(vector.fork());
+                lists.add(new ArrayList<>(list));
+            } else if (op < 89 && vectors.size() < 8) {
+                int from = random.nextInt(list.size());
+                int to = from + random.nextInt(list.size() - from + 1);
+                vectors.add(vector.slice(from, to));
+                lists.add(new ArrayList<>(list.subList(from, to)));
+            } else if (op < 90 && vectors.size() > 1) {
+                vectors.remove(which);
+                lists.remove(which);
+            } else {
+                int index = random.nextInt(list.size());
+                assertEquals(list.get(index), vector.get(index));
+            }
+            if (step % 1000 == 0)
+                for (int i = 0; i < vectors.size(); i++)
+                    assertEquals(lists.get(i), new ArrayList<>(vectors.get(i)));
+        }
+        for (int i = 0; i < vectors.size(); i++)
+            assertEquals(lists.get(i), new ArrayList<>(vectors.get(i)));
+    }
+
+    @Test
+    void forksDontSeeChanges() {
+        PersistentVector vector = new PersistentVector();
+        for (int i = 0; i < 5000; i++)
+            vector.add(NumericValue.of(i));
+        PersistentVector fork = vector.fork();
+        for (int i = 0; i < 5000; i++)
+            vector.set(i, NumericValue.of(-i));
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(NumericValue.of(i), fork.get(i));
+            assertEquals(NumericValue.of(-i), vector.get(i));
+        }
+    }
+
+    @Test
+    void queueDoesntKeepRemovedItems() throws ReflectiveOperationException {
+        PersistentVector queue = new PersistentVector();
+        for (int i = 0; i < 1000; i++)
+            queue.add(NumericValue.of(i));
+        for (int i = 1000; i < 100_000; i++) {
+            queue.add(NumericValue.of(i));
+            assertEquals(NumericValue.of(i - 1000), queue.remove(0));
+        }
+        assertEquals(1000, queue.size());
+        Field count = PersistentVector.class.getDeclaredField("count");
+        count.setAccessible(true);
+        assertTrue((int) count.get(queue) <= 2 * 1000 + 32);
+    }
+}
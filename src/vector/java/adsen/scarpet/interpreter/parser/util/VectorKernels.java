@@ -0,0 +1,104 @@
+package adsen.scarpet.interpreter.parser.util;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link Kernels} working on as many items at once as the CPU's widest vector registers fit. Items left over at the end
+ * are done one by one. Products are added without fused multiply-adds, so that results stay the same as the plain
+ * ones. Only loaded through {@link Kernels#setVectorized(boolean)}, as this needs the {@code jdk.incubator.vector}
+ * module, which is also why it is in a source set of its own.
+ */
+final class VectorKernels extends Kernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    @Override
+    public void add(double[] a, double[] b, double[] result, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES)
+            DoubleVector.fromArray(SPECIES, a, i).add(DoubleVector.fromArray(SPECIES, b, i)).intoArray(result, i);
+        for (; i < length; i++) result[i] = a[i] + b[i];
+    }
+
+    @Override
+    public void subtract(double[] a, double[] b, double[] result, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES)
+            DoubleVector.fromArray(SPECIES, a, i).sub(DoubleVector.fromArray(SPECIES, b, i)).intoArray(result, i);
+        for (; i < length; i++) result[i] = a[i] - b[i];
+    }
+
+    @Override
+    public void multiply(double[] a, double[] b, double[] result, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES)
+            DoubleVector.fromArray(SPECIES, a, i).mul(DoubleVector.fromArray(SPECIES, b, i)).intoArray(result, i);
+        for (; i < length; i++) result[i] = a[i] * b[i];
+    }
+
+    @Override
+    public void divide(double[] a, double[] b, double[] result, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES)
+            DoubleVector.fromArray(SPECIES, a, i).div(DoubleVector.fromArray(SPECIES, b, i)).intoArray(result, i);
+        for (; i < length; i++) result[i] = a[i] / b[i];
+    }
+
+    @Override
+    public void add(double[] a, double b, double[] result, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES)
+            DoubleVector.fromArray(SPECIES, a, i).add(b).intoArray(result, i);
+        for (; i < length; i++) result[i] = a[i] + b;
+    }
+
+    @Override
+    public void subtract(double[] a, double b, double[] result, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES)
+            DoubleVector.fromArray(SPECIES, a, i).sub(b).intoArray(result, i);
+        for (; i < length; i++) result[i] = a[i] - b;
+    }
+
+    @Override
+    public void multiply(double[] a, double b, double[] result, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES)
+            DoubleVector.fromArray(SPECIES, a, i).mul(b).intoArray(result, i);
+        for (; i < length; i++) result[i] = a[i] * b;
+    }
+
+    @Override
+    public void divide(double[] a, double b, double[] result, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES)
+            DoubleVector.fromArray(SPECIES, a, i).div(b).intoArray(result, i);
+        for (; i < length; i++) result[i] = a[i] / b;
+    }
+
+    /**
+     * Keeps a separate sum in each lane, which only get added together at the end
+     */
+    @Override
+    public double dot(double[] a, int aFrom, double[] b, int bFrom, int length) {
+        DoubleVector sums = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES)
+            sums = sums.add(DoubleVector.fromArray(SPECIES, a, aFrom + i).mul(DoubleVector.fromArray(SPECIES, b, bFrom + i)));
+        double sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) sum += a[aFrom + i] * b[bFrom + i];
+        return sum;
+    }
+
+    @Override
+    public void addScaled(double a, double[] x, int xFrom, double[] y, int yFrom, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES)
+            DoubleVector.fromArray(SPECIES, y, yFrom + i)
+                    .add(DoubleVector.fromArray(SPECIES, x, xFrom + i).mul(a))
+                    .intoArray(y, yFrom + i);
+        for (; i < length; i++) y[yFrom + i] += a * x[xFrom + i];
+    }
+}